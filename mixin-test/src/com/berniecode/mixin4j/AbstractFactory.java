@@ -0,0 +1,145 @@
+package com.berniecode.mixin4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>A {@link Factory} with further operations for creating instances, which have default
+ * implementations in terms of {@link #newInstance(Class[], Object[])}. The factories of the
+ * mixers in this library extend it and override them with faster versions.
+ * 
+ * <p>New operations are added to this class rather than to {@link Factory}, so that existing
+ * implementations of Factory keep working. Implementations that want the new operations should
+ * extend this class. Callers holding any Factory can get them with {@link #adapt(Factory)}.
+ * 
+ * @param <T> the type that will be created
+ * 
+ * @author Bernard Sumption
+ */
+public abstract class AbstractFactory<T> implements Factory<T> {
+	
+	private static final Object[] NO_ARGS = new Object[0];
+	
+	/**
+	 * Return a factory as an AbstractFactory: the factory itself if it already is one, or else
+	 * an AbstractFactory that uses the default implementations of the further operations
+	 */
+	public static <T> AbstractFactory<T> adapt(final Factory<T> factory) {
+		if (factory instanceof AbstractFactory) {
+			return (AbstractFactory<T>) factory;
+		}
+		return new AbstractFactory<T>() {
+			public T newInstance() {
+				return factory.newInstance();
+			}
+			public T newInstance(Class<?>[] constructorArgTypes, Object[] constructorArgs) {
+				return factory.newInstance(constructorArgTypes, constructorArgs);
+			}
+		};
+	}
+	
+	/**
+	 * <p>Return an object that calls one specific constructor. Callers that create many objects
+	 * with the same constructor can hold on to it to avoid looking the constructor up each time.
+	 * 
+	 * <p>By default this returns an object that calls {@link #newInstance(Class[], Object[])}.
+	 * 
+	 * @param constructorArgTypes The types of the arguments
+	 * @throws MixinException if there is no such constructor
+	 */
+	public ConstructorInvoker<? extends T> getConstructor(final Class<?>[] constructorArgTypes) {
+		return new ConstructorInvoker<T>() {
+			public T newInstance(Object[] constructorArgs) {
+				return AbstractFactory.this.newInstance(constructorArgTypes, constructorArgs);
+			}
+		};
+	}
+	
+	/**
+	 * <p>Create a number of new objects using the no-arg constructor.
+	 * 
+	 * <p>By default this calls {@link #newInstances(int, Class[], ConstructorArguments)}.
+	 * 
+	 * @param count The number of objects to create
+	 * @return the new objects, in a list created with room for exactly that many
+	 * @throws MixinException if count is negative, or there is no no-arg constructor
+	 */
+	public List<T> newInstances(int count) {
+		return newInstances(count, new Class<?>[0], null);
+	}
+	
+	/**
+	 * <p>Create a number of new objects using specific constructor arguments for each one. The
+	 * factories of the built-in mixers look up and check the constructor once for the whole batch,
+	 * rather than once for each object, and record one flight recorder event for the batch.
+	 * 
+	 * <p>By default this calls {@link #getConstructor(Class[])} once, and the invoker it returns
+	 * for each object.
+	 * 
+	 * @param count The number of objects to create
+	 * @param constructorArgTypes The types of the arguments
+	 * @param constructorArgs Supplies the value of the arguments for each object, or null if the
+	 * constructor has no arguments
+	 * @return the new objects, in a list created with room for exactly that many
+	 * @throws MixinException if count is negative, there is no such constructor, or no arguments
+	 * are supplied for a constructor that has them
+	 */
+	public List<T> newInstances(int count, Class<?>[] constructorArgTypes, ConstructorArguments constructorArgs) {
+		checkBatch(count, constructorArgTypes, constructorArgs);
+		ConstructorInvoker<? extends T> constructor = getConstructor(constructorArgTypes);
+		List<T> instances = new ArrayList<T>(count);
+		for (int i=0; i<count; i++) {
+			instances.add(constructor.newInstance(getArguments(constructorArgs, i)));
+		}
+		return instances;
+	}
+	
+	/**
+	 * Check the arguments of {@link #newInstances(int, Class[], ConstructorArguments)}, before
+	 * any objects are created
+	 */
+	static void checkBatch(int count, Class<?>[] constructorArgTypes, ConstructorArguments constructorArgs) {
+		if (count < 0) {
+			throw new MixinException("count must be 0 or more, not " + count);
+		}
+		if (constructorArgs == null && constructorArgTypes.length > 0) {
+			throw new MixinException("No ConstructorArguments for a batch created with the constructor with arguments "
+					+ Arrays.toString(constructorArgTypes));
+		}
+	}
+	
+	/**
+	 * Return the arguments for an object in a batch, from constructor arguments that may be null
+	 * if the constructor has none
+	 */
+	static Object[] getArguments(ConstructorArguments constructorArgs, int index) {
+		return constructorArgs == null ? NO_ARGS : constructorArgs.getArguments(index);
+	}
+	
+	/**
+	 * <p>Return an implementation of a constructor interface: a public interface with one method,
+	 * which takes the same parameters as a constructor of the mixin base class and returns the
+	 * mixin base class or a supertype of it. For example:
+	 * 
+	 * <pre>public interface SequenceConstructor {
+	 *     RandomNumberSequence create(int length, int min, int max);
+	 * }</pre>
+	 * 
+	 * <p>Each call to the method creates a new object. Factories for generated mixed classes
+	 * implement the interface with a generated class that calls the constructor directly, so
+	 * unlike {@link #newInstance(Class[], Object[])}, no arrays are allocated and primitive
+	 * arguments are not boxed. Creating the implementation is slow, so hold on to it.
+	 * 
+	 * <p>By default this returns a proxy that calls {@link #newInstance(Class[], Object[])}. It
+	 * doesn't know which class the factory creates, so if the interface doesn't match one of its
+	 * constructors, that is only reported when the method is called.
+	 * 
+	 * @param constructorInterface the interface to implement
+	 * @throws MixinException if the interface doesn't match a constructor
+	 */
+	public <C> C getTypedConstructor(Class<C> constructorInterface) {
+		return TypedConstructors.createReflective(constructorInterface, null, this);
+	}
+
+}
@@ -0,0 +1,165 @@
+package com.berniecode.mixin4j;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.cglib.core.ReflectUtils;
+
+/**
+ * <p>Generates the same mixed class as {@link BytecodeGeneratingMixer}, but defines it in the class
+ * loader of the mixin base, in the same package, rather than in a new class loader of its own. The
+ * mixed class can then be unloaded along with the mixin base, which suits applications that load
+ * and discard mixin bases at runtime, such as plugin hosts:
+ *
+ * <ul>
+ * <li>There is no class loader per mixed class, and the mixed class is kept alive by the mixin
+ * base's class loader rather than by a cache.
+ * <li>{@link MixinSupport} doesn't keep mixin bases alive, and holds the factories of this mixer
+ * softly, so that once a mixin base is no longer used they can be collected and the whole class
+ * loader that defined it can be unloaded.
+ * <li>A mixed class is never defined twice. The name of each mixed class includes a hash of its
+ * mixins, so if its factory has been collected and is needed again, or another {@link MixinSupport}
+ * needs it, the class already defined in the mixin base's class loader is found and reused. Its
+ * constructor invokers are defined before it, so finding the mixed class means they exist too.
+ * </ul>
+ *
+ * <p>On Java 9 and later, the classes are defined with <code>MethodHandles.Lookup.defineClass</code>,
+ * through a lookup in the mixin base's package from <code>MethodHandles.privateLookupIn</code>, which
+ * needs no JVM options for classes on the class path. Both are found by reflection, as this library
+ * runs on older JVMs. If they aren't available, or the mixin base's module doesn't open its package
+ * to this library, the classes are defined in the same way that CGLib defines proxy classes, by
+ * calling ClassLoader.defineClass reflectively, which on Java 9 and later needs the JVM option
+ * <code>--add-opens java.base/java.lang=ALL-UNNAMED</code>.
+ *
+ * <p>The classes are not hidden classes (<code>Lookup.defineHiddenClass</code>), although those can
+ * be unloaded without their class loader: a hidden class has no name that other classes can refer
+ * to it by, so the constructor invokers and typed constructors couldn't create instances of it, and
+ * it couldn't be found again to be reused. Mixin bases loaded by the bootstrap class loader can't
+ * be mixed.
+ *
+ * @author Bernard Sumption
+ */
+public class BaseLoaderMixer implements Mixer {
+
+	// MethodHandles.privateLookupIn(Class, Lookup) and Lookup.defineClass(byte[]), or null before Java 9
+	private static final Method PRIVATE_LOOKUP_IN;
+	private static final Method DEFINE_CLASS;
+	static {
+		Method privateLookupIn = null;
+		Method defineClass = null;
+		try {
+			privateLookupIn = MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class);
+			defineClass = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+		} catch (NoSuchMethodException e) {
+			// an older JVM
+		}
+		PRIVATE_LOOKUP_IN = privateLookupIn;
+		DEFINE_CLASS = defineClass;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> Factory<? extends T> getFactory(Class<T> mixinBase, Mixin<T> mixin) {
+		List<Mixin<T>> mixins = new ArrayList<Mixin<T>>();
+		mixins.add(mixin);
+		return getFactory(mixinBase, mixins);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> Factory<? extends T> getFactory(final Class<T> mixinBase, List<Mixin<T>> mixins) {
+		final ClassLoader loader = mixinBase.getClassLoader();
+		if (loader == null) {
+			throw new MixinException("BaseLoaderMixer can't mix '" + mixinBase.getCanonicalName()
+					+ "', which was loaded by the bootstrap class loader");
+		}
+		String mixedClassName = mixinBase.getPackage().getName() + "."
+				+ MixedClassSourceGenerator.getMixedClassName(mixinBase.getSimpleName()) + "$$" + getMixinsHash(mixins);
+		Class<?> mixedClass = findClass(mixedClassName, loader);
+		if (mixedClass == null) {
+			mixedClass = BytecodeGeneratingFactory.getMixedClass(mixinBase, mixins, false, mixedClassName,
+					new MixedClassFactory.ClassDefiner() {
+				public Class<?> define(String name, byte[] bytecode) {
+					try {
+						return defineClass(name, bytecode, mixinBase);
+					} catch (Exception e) {
+						// another thread may have defined the same class first
+						Class<?> existing = findClass(name, loader);
+						if (existing != null) {
+							return existing;
+						}
+						Throwable cause = e.getCause() != null ? e.getCause() : e;
+						if (cause instanceof LinkageError) {
+							throw (LinkageError) cause;
+						}
+						throw new MixinException("Could not define class " + name + " in the class loader of its mixin base", e);
+					}
+				}
+			});
+		}
+		// safe because the class was generated from mixinBase
+		@SuppressWarnings("unchecked")
+		Class<? extends T> baseSubclass = (Class<? extends T>) mixedClass;
+		return new BytecodeGeneratingFactory<T>(baseSubclass);
+	}
+
+	/**
+	 * Define a class in the class loader and package of a mixin base
+	 */
+	private static Class<?> defineClass(String name, byte[] bytecode, Class<?> mixinBase) throws Exception {
+		if (DEFINE_CLASS != null) {
+			Object lookup;
+			try {
+				lookup = PRIVATE_LOOKUP_IN.invoke(null, mixinBase, MethodHandles.lookup());
+			} catch (Exception e) {
+				// the mixin base's module doesn't open its package to this library
+				lookup = null;
+			}
+			if (lookup != null) {
+				return (Class<?>) DEFINE_CLASS.invoke(lookup, bytecode);
+			}
+		}
+		return ReflectUtils.defineClass(name, bytecode, mixinBase.getClassLoader());
+	}
+
+	/**
+	 * Return a class that has already been defined in a class loader, or null if it hasn't
+	 */
+	private static Class<?> findClass(String name, ClassLoader loader) {
+		try {
+			return Class.forName(name, false, loader);
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Return a hash of everything about a list of mixins that affects the mixed class generated from it
+	 */
+	private static String getMixinsHash(List<? extends Mixin<?>> mixins) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new MixinException("SHA-1 is not available", e);
+		}
+		for (Mixin<?> mixin: mixins) {
+			String spec = mixin.getMixinType().getName() + "=" + mixin.getMixinImpl().getName()
+					+ (mixin.isStateless() ? " stateless" : "") + (mixin.isLazy() ? " lazy" : "") + "\n";
+			digest.update(spec.getBytes());
+		}
+		StringBuilder hash = new StringBuilder();
+		byte[] bytes = digest.digest();
+		for (int i=0; i<8; i++) {
+			hash.append(Integer.toHexString((bytes[i] & 0xff) | 0x100).substring(1));
+		}
+		return hash.toString();
+	}
+
+}
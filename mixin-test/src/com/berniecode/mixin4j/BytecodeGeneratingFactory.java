@@ -0,0 +1,342 @@
+package com.berniecode.mixin4j;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import net.sf.cglib.asm.ClassWriter;
+import net.sf.cglib.asm.Label;
+import net.sf.cglib.asm.MethodVisitor;
+import net.sf.cglib.asm.Opcodes;
+import net.sf.cglib.asm.Type;
+
+/**
+ * A {@link Factory} for a mixed class that is generated as bytecode
+ *
+ * @author Bernard Sumption
+ */
+class BytecodeGeneratingFactory<T> extends MixedClassFactory<T> implements Opcodes {
+
+	private static final String MIXIN_AWARE = Type.getInternalName(MixinAware.class);
+
+	private static final String SET_MIXIN_BASE_DESCRIPTOR = "(Ljava/lang/Object;)V";
+
+	private static final String NO_ARG_CONSTRUCTOR_DESCRIPTOR = "()V";
+
+	private static final String UPDATER = Type.getInternalName(AtomicReferenceFieldUpdater.class);
+
+	private static final String UPDATER_DESCRIPTOR = Type.getDescriptor(AtomicReferenceFieldUpdater.class);
+
+	public BytecodeGeneratingFactory(Class<T> mixinBase, List<Mixin<T>> mixins) {
+		this(mixinBase, mixins, false);
+	}
+
+	/**
+	 * @param inlineImplementations whether to copy mixin implementations into the mixed class where
+	 *        possible, see {@link FieldInliningMixer}
+	 */
+	public BytecodeGeneratingFactory(Class<T> mixinBase, List<Mixin<T>> mixins, boolean inlineImplementations) {
+		super(getMixedClass(mixinBase, mixins, inlineImplementations, mixinBase.getPackage().getName() + "."
+				+ MixedClassSourceGenerator.getMixedClassName(mixinBase.getSimpleName()),
+				new MixedClassLoader(mixinBase.getClassLoader())));
+	}
+
+	/**
+	 * Create a factory for a mixed class that has already been generated
+	 */
+	BytecodeGeneratingFactory(Class<? extends T> mixedClass) {
+		super(mixedClass);
+	}
+
+	/**
+	 * Generate a mixed class and its constructor invokers
+	 *
+	 * @param definer defines the classes, in a loader that can see the mixin base and implementations
+	 */
+	static <T> Class<? extends T> getMixedClass(Class<T> mixinBase, List<Mixin<T>> mixins, boolean inlineImplementations,
+			String mixedClassName, ClassDefiner definer) {
+		String internalName = mixedClassName.replace('.', '/');
+		List<Constructor<?>> constructors = getMixableConstructors(mixinBase);
+		ImplementationInliner[] inliners = new ImplementationInliner[mixins.size()];
+		for (int i=0; i<mixins.size(); i++) {
+			Mixin<T> mixin = mixins.get(i);
+			if (inlineImplementations && !mixin.isStateless() && !mixin.isLazy()) {
+				inliners[i] = ImplementationInliner.create(mixin.getMixinImpl(), mixin.getMixinType());
+			}
+		}
+
+		Class<?> mixedClass;
+		try {
+			// the invokers are defined first, so that once the mixed class can be found by name, so can
+			// they. They only refer to the mixed class from their code, which isn't linked until used.
+			for (int i=0; i<constructors.size(); i++) {
+				String invokerName = mixedClassName + "$" + MixedClassSourceGenerator.getInvokerClassName(i);
+				definer.define(invokerName, generateInvokerClass(invokerName.replace('.', '/'), internalName, constructors.get(i)));
+			}
+			mixedClass = definer.define(mixedClassName, generateMixedClass(internalName, mixinBase, mixins, inliners, constructors));
+		} catch (LinkageError e) {
+			throw new MixinException("Generated invalid bytecode for mixin base " + mixinBase.getCanonicalName()
+					+ ": " + e, e);
+		}
+		// safe because the generated class extends mixinBase
+		@SuppressWarnings("unchecked")
+		Class<? extends T> result = (Class<? extends T>) mixedClass;
+		return result;
+	}
+
+	/**
+	 * Generate the equivalent of the class body produced by {@link MixedClassSourceGenerator}:
+	 * a field holding an instance of each mixin implementation, a method delegating to it for
+	 * each method of the mixin type, and a constructor for each constructor of the base class.
+	 * Lazy mixins get an accessor method that creates the implementation on first use instead
+	 * of being created by the constructors, and stateless mixins share one in a static field.
+	 * Mixins with an inliner have their implementation copied into the class instead.
+	 */
+	private static <T> byte[] generateMixedClass(String internalName, Class<T> mixinBase,
+			List<Mixin<T>> mixins, ImplementationInliner[] inliners, List<Constructor<?>> constructors) {
+		String baseName = Type.getInternalName(mixinBase);
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(V1_5, ACC_PUBLIC | ACC_SUPER, internalName, null, baseName, null);
+
+		boolean hasStaticFields = false;
+		for (int i=0; i<mixins.size(); i++) {
+			Mixin<T> mixin = mixins.get(i);
+			String implDescriptor = Type.getDescriptor(mixin.getMixinImpl());
+			if (inliners[i] != null) {
+				inliners[i].inline(cw, internalName, getInlinedPrefix(i));
+				continue;
+			}
+			if (mixin.isStateless()) {
+				hasStaticFields = true;
+				cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, getFieldName(i), implDescriptor, null, null).visitEnd();
+			} else if (mixin.isLazy()) {
+				hasStaticFields = true;
+				cw.visitField(ACC_PRIVATE | ACC_VOLATILE, getFieldName(i), implDescriptor, null, null).visitEnd();
+				cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, getUpdaterName(i), UPDATER_DESCRIPTOR, null, null).visitEnd();
+				generateLazyAccessor(cw, internalName, i, mixin.getMixinImpl());
+			} else {
+				cw.visitField(ACC_PRIVATE, getFieldName(i), implDescriptor, null, null).visitEnd();
+			}
+
+			for (Method method: mixin.getMixinType().getMethods()) {
+				String descriptor = Type.getMethodDescriptor(method);
+				MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, method.getName(), descriptor, null, null);
+				mv.visitCode();
+				if (mixin.isStateless()) {
+					mv.visitFieldInsn(GETSTATIC, internalName, getFieldName(i), implDescriptor);
+				} else if (mixin.isLazy()) {
+					mv.visitVarInsn(ALOAD, 0);
+					mv.visitMethodInsn(INVOKESPECIAL, internalName, getFieldName(i), "()" + implDescriptor);
+				} else {
+					mv.visitVarInsn(ALOAD, 0);
+					mv.visitFieldInsn(GETFIELD, internalName, getFieldName(i), implDescriptor);
+				}
+				Method target = mixin.isStateless()
+						? MixinUtils.getStatelessMethod(mixin.getMixinImpl(), method, mixinBase)
+						: method;
+				if (target.equals(method)) {
+					loadArguments(mv, method.getParameterTypes());
+					mv.visitMethodInsn(INVOKEINTERFACE, Type.getInternalName(method.getDeclaringClass()),
+							method.getName(), descriptor);
+				} else {
+					// pass the mixed object to the stateless implementation
+					mv.visitVarInsn(ALOAD, 0);
+					loadArguments(mv, method.getParameterTypes());
+					mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(mixin.getMixinImpl()),
+							target.getName(), Type.getMethodDescriptor(target));
+				}
+				mv.visitInsn(Type.getType(method.getReturnType()).getOpcode(IRETURN));
+				mv.visitMaxs(0, 0);
+				mv.visitEnd();
+			}
+		}
+
+		if (hasStaticFields) {
+			MethodVisitor mv = cw.visitMethod(ACC_STATIC, "<clinit>", NO_ARG_CONSTRUCTOR_DESCRIPTOR, null, null);
+			mv.visitCode();
+			for (int i=0; i<mixins.size(); i++) {
+				if (mixins.get(i).isStateless()) {
+					Class<?> impl = mixins.get(i).getMixinImpl();
+					mv.visitTypeInsn(NEW, Type.getInternalName(impl));
+					mv.visitInsn(DUP);
+					mv.visitMethodInsn(INVOKESPECIAL, Type.getInternalName(impl), "<init>", NO_ARG_CONSTRUCTOR_DESCRIPTOR);
+					mv.visitFieldInsn(PUTSTATIC, internalName, getFieldName(i), Type.getDescriptor(impl));
+				} else if (mixins.get(i).isLazy()) {
+					mv.visitLdcInsn(Type.getObjectType(internalName));
+					mv.visitLdcInsn(Type.getType(mixins.get(i).getMixinImpl()));
+					mv.visitLdcInsn(getFieldName(i));
+					mv.visitMethodInsn(INVOKESTATIC, UPDATER, "newUpdater",
+							"(Ljava/lang/Class;Ljava/lang/Class;Ljava/lang/String;)" + UPDATER_DESCRIPTOR);
+					mv.visitFieldInsn(PUTSTATIC, internalName, getUpdaterName(i), UPDATER_DESCRIPTOR);
+				}
+			}
+			mv.visitInsn(RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		for (Constructor<?> constructor: constructors) {
+			String descriptor = Type.getConstructorDescriptor(constructor);
+			MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", descriptor, null, null);
+			mv.visitCode();
+			mv.visitVarInsn(ALOAD, 0);
+			loadArguments(mv, constructor.getParameterTypes());
+			mv.visitMethodInsn(INVOKESPECIAL, baseName, "<init>", descriptor);
+			// create the mixin implementations, in the same order as the field initialisers of generated source
+			for (int i=0; i<mixins.size(); i++) {
+				Class<?> impl = mixins.get(i).getMixinImpl();
+				if (inliners[i] != null) {
+					mv.visitVarInsn(ALOAD, 0);
+					mv.visitMethodInsn(INVOKESPECIAL, internalName, ImplementationInliner.getInitMethodName(getInlinedPrefix(i)),
+							NO_ARG_CONSTRUCTOR_DESCRIPTOR);
+					if (MixinAware.class.isAssignableFrom(impl)) {
+						// the copied implementation is aware of the object that it is part of
+						mv.visitVarInsn(ALOAD, 0);
+						mv.visitVarInsn(ALOAD, 0);
+						mv.visitMethodInsn(INVOKEVIRTUAL, internalName,
+								ImplementationInliner.getRenamedMethodName(getInlinedPrefix(i), "setMixinBase"),
+								SET_MIXIN_BASE_DESCRIPTOR);
+					}
+					continue;
+				}
+				if (mixins.get(i).isStateless() || mixins.get(i).isLazy()) {
+					continue;
+				}
+				String implName = Type.getInternalName(impl);
+				mv.visitVarInsn(ALOAD, 0);
+				mv.visitTypeInsn(NEW, implName);
+				mv.visitInsn(DUP);
+				mv.visitMethodInsn(INVOKESPECIAL, implName, "<init>", NO_ARG_CONSTRUCTOR_DESCRIPTOR);
+				mv.visitFieldInsn(PUTFIELD, internalName, getFieldName(i), Type.getDescriptor(impl));
+				if (MixinAware.class.isAssignableFrom(impl)) {
+					mv.visitVarInsn(ALOAD, 0);
+					mv.visitFieldInsn(GETFIELD, internalName, getFieldName(i), Type.getDescriptor(impl));
+					mv.visitVarInsn(ALOAD, 0);
+					mv.visitMethodInsn(INVOKEINTERFACE, MIXIN_AWARE, "setMixinBase", SET_MIXIN_BASE_DESCRIPTOR);
+				}
+			}
+			mv.visitInsn(RETURN);
+			mv.visitMaxs(0, 0);
+			mv.visitEnd();
+		}
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	/**
+	 * Generate a private method with the same name as the mixin's field that returns the
+	 * implementation, creating it if this is the first call. Racing threads may each create
+	 * one, but only the first to be stored by compareAndSet is ever used.
+	 */
+	private static void generateLazyAccessor(ClassWriter cw, String internalName, int mixinIndex, Class<?> impl) {
+		String implName = Type.getInternalName(impl);
+		String implDescriptor = Type.getDescriptor(impl);
+		MethodVisitor mv = cw.visitMethod(ACC_PRIVATE, getFieldName(mixinIndex), "()" + implDescriptor, null, null);
+		mv.visitCode();
+		Label existing = new Label();
+		Label stored = new Label();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitFieldInsn(GETFIELD, internalName, getFieldName(mixinIndex), implDescriptor);
+		mv.visitInsn(DUP);
+		mv.visitJumpInsn(IFNONNULL, existing);
+		mv.visitInsn(POP);
+		mv.visitTypeInsn(NEW, implName);
+		mv.visitInsn(DUP);
+		mv.visitMethodInsn(INVOKESPECIAL, implName, "<init>", NO_ARG_CONSTRUCTOR_DESCRIPTOR);
+		mv.visitVarInsn(ASTORE, 1);
+		if (MixinAware.class.isAssignableFrom(impl)) {
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitVarInsn(ALOAD, 0);
+			mv.visitMethodInsn(INVOKEINTERFACE, MIXIN_AWARE, "setMixinBase", SET_MIXIN_BASE_DESCRIPTOR);
+		}
+		mv.visitFieldInsn(GETSTATIC, internalName, getUpdaterName(mixinIndex), UPDATER_DESCRIPTOR);
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitInsn(ACONST_NULL);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitMethodInsn(INVOKEVIRTUAL, UPDATER, "compareAndSet",
+				"(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Z");
+		mv.visitJumpInsn(IFNE, stored);
+		// another thread got there first
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitFieldInsn(GETFIELD, internalName, getFieldName(mixinIndex), implDescriptor);
+		mv.visitInsn(ARETURN);
+		mv.visitLabel(stored);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitInsn(ARETURN);
+		mv.visitLabel(existing);
+		mv.visitInsn(ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	/**
+	 * Generate a {@link ConstructorInvoker} that unpacks its argument array and calls a constructor
+	 * of the mixed class
+	 */
+	private static byte[] generateInvokerClass(String internalName, String mixedClassName, Constructor<?> constructor) {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(V1_5, ACC_PUBLIC | ACC_SUPER, internalName, null, "java/lang/Object",
+				new String[] {Type.getInternalName(ConstructorInvoker.class)});
+
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", NO_ARG_CONSTRUCTOR_DESCRIPTOR, null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", NO_ARG_CONSTRUCTOR_DESCRIPTOR);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(ACC_PUBLIC, "newInstance", "([Ljava/lang/Object;)Ljava/lang/Object;", null, null);
+		mv.visitCode();
+		mv.visitTypeInsn(NEW, mixedClassName);
+		mv.visitInsn(DUP);
+		Class<?>[] parameterTypes = constructor.getParameterTypes();
+		for (int i=0; i<parameterTypes.length; i++) {
+			mv.visitVarInsn(ALOAD, 1);
+			mv.visitLdcInsn(Integer.valueOf(i));
+			mv.visitInsn(AALOAD);
+			if (parameterTypes[i].isPrimitive()) {
+				String wrapper = Type.getInternalName(MixinUtils.getWrapperType(parameterTypes[i]));
+				mv.visitTypeInsn(CHECKCAST, wrapper);
+				mv.visitMethodInsn(INVOKEVIRTUAL, wrapper, parameterTypes[i].getName() + "Value",
+						"()" + Type.getDescriptor(parameterTypes[i]));
+			} else {
+				mv.visitTypeInsn(CHECKCAST, Type.getInternalName(parameterTypes[i]));
+			}
+		}
+		mv.visitMethodInsn(INVOKESPECIAL, mixedClassName, "<init>", Type.getConstructorDescriptor(constructor));
+		mv.visitInsn(ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	/**
+	 * Push method arguments, starting at local variable 1, onto the stack
+	 */
+	private static void loadArguments(MethodVisitor mv, Class<?>[] parameterTypes) {
+		int local = 1;
+		for (Class<?> parameterType: parameterTypes) {
+			Type type = Type.getType(parameterType);
+			mv.visitVarInsn(type.getOpcode(ILOAD), local);
+			local += type.getSize();
+		}
+	}
+
+	private static String getFieldName(int mixinIndex) {
+		return "mixin" + (mixinIndex + 1);
+	}
+
+	private static String getInlinedPrefix(int mixinIndex) {
+		return getFieldName(mixinIndex) + "$";
+	}
+
+	private static String getUpdaterName(int mixinIndex) {
+		return getFieldName(mixinIndex) + "Updater";
+	}
+
+}
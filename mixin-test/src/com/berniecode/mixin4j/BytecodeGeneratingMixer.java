@@ -0,0 +1,32 @@
+package com.berniecode.mixin4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Generates the same mixed class as {@link ClassGeneratingMixer}, but writes the bytecode directly
+ * using the ASM library bundled with CGLib instead of generating Java source and compiling it. This
+ * is much faster, which matters if many mixin bases are mixed at startup, but there is no source code
+ * to look at when debugging.
+ *
+ * @author Bernard Sumption
+ */
+public class BytecodeGeneratingMixer implements Mixer {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> Factory<? extends T> getFactory(Class<T> mixinBase, Mixin<T> mixin) {
+		List<Mixin<T>> mixins = new ArrayList<Mixin<T>>();
+		mixins.add(mixin);
+		return getFactory(mixinBase, mixins);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> Factory<? extends T> getFactory(Class<T> mixinBase, List<Mixin<T>> mixins) {
+		return new BytecodeGeneratingFactory<T>(mixinBase, mixins);
+	}
+
+}
@@ -4,13 +4,25 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import org.codehaus.janino.ClassBodyEvaluator;
+import org.codehaus.janino.ClassLoaderIClassLoader;
+import org.codehaus.janino.DebuggingInformation;
+import org.codehaus.janino.IClassLoader;
+import org.codehaus.janino.Java;
+import org.codehaus.janino.Parser;
+import org.codehaus.janino.Scanner;
+import org.codehaus.janino.UnitCompiler;
+import org.codehaus.janino.util.ClassFile;
 
 public class ClassGeneratingMixer implements Mixer {
 
@@ -26,91 +38,253 @@ public class ClassGeneratingMixer implements Mixer {
 		return new JanioSourceGeneratingFactory<T>(mixinBase, mixins);
 	}
 
+	/**
+	 * <p>Return factories for several mixin bases at once. This is faster than calling
+	 * {@link #getFactory(Class, List)} for each of them, because the mixed classes that
+	 * need compiling share one compiler, which only has to load the classes that they
+	 * have in common (the mixin types, implementations and core Java classes) once.
+	 * 
+	 * <p>If any mixed class can't be generated, an exception is thrown and no factories
+	 * are returned.
+	 * 
+	 * @param mixinsByBase the mixins to apply, mapped from the mixin base to apply them to
+	 * @return a factory for each mixin base
+	 */
+	public Map<Class<?>, Factory<?>> getFactories(Map<Class<?>, List<Mixin<?>>> mixinsByBase) {
+		Map<Class<?>, Factory<?>> factories = new LinkedHashMap<Class<?>, Factory<?>>();
+		for (Map.Entry<Class<?>, Class<?>> mixedClass: JanioSourceGeneratingFactory.getMixedClasses(mixinsByBase).entrySet()) {
+			factories.put(mixedClass.getKey(), new JanioSourceGeneratingFactory<Object>(mixedClass.getValue()));
+		}
+		return factories;
+	}
+
 }
 
-class JanioSourceGeneratingFactory<T> implements Factory<T> {
+/**
+ * A {@link Factory} for a mixed class that is generated as Java source code and compiled with Janino
+ */
+class JanioSourceGeneratingFactory<T> extends MixedClassFactory<T> {
 	
 	private static final String SAVE_ROOT_PROPERTY = "com.berniecode.mixin4j.generatedSourceFolder";
 
-	// a text string that comments out lines in the compiled code but exposes it in the saved files
-	private static final String COMPILATION_ONLY = "//stripme//";
+	public JanioSourceGeneratingFactory(Class<T> mixinBase, List<Mixin<T>> mixins) {
+		super(getMixedClass(mixinBase, mixins));
+	}
 
-	private final Class<? extends T> mixedClass;
+	JanioSourceGeneratingFactory(Class<? extends T> mixedClass) {
+		super(mixedClass);
+	}
 
-	public JanioSourceGeneratingFactory(Class<T> mixinBase, List<Mixin<T>> mixins) {
-		mixedClass = getMixedClass(mixinBase, mixins);
+	@SuppressWarnings("unchecked")
+	private static <T> Class<? extends T> getMixedClass(Class<T> mixinBase, List<Mixin<T>> mixins) {
+		Map<Class<?>, List<Mixin<?>>> mixinsByBase = new HashMap<Class<?>, List<Mixin<?>>>();
+		mixinsByBase.put(mixinBase, new ArrayList<Mixin<?>>(mixins));
+		// safe because the generated class extends mixinBase
+		return (Class<? extends T>) getMixedClasses(mixinsByBase).get(mixinBase);
 	}
 
-	private Class<? extends T> getMixedClass(Class<T> mixinBase, List<Mixin<T>> mixins) {
-		JavaSourceBuilder jsb = new JavaSourceBuilder();
-		
-		String mixedClassName = mixinBase.getSimpleName() + "WithMixins";
-		jsb.line(COMPILATION_ONLY + "class %s extends %s {", mixedClassName, mixinBase.getName());
-		jsb.line();
-		
-		int mixinId=0;
-		for (Mixin<T> mixin: mixins) {
-			mixinId++;
-			// mixin variable declaration
-			String implClassName = mixin.getMixinImpl().getName();
-			String varName = mixin.getMixinType().getSimpleName() + mixinId;
-			varName = Character.toLowerCase(varName.charAt(0)) + varName.substring(1);
-			jsb.line("// delegation of methods in mixin type %s", mixin.getMixinType());
-			jsb.line("// to implementation %s", mixin.getMixinImpl());
-			jsb.line("private %s %s = new %1$s();", implClassName, varName);
-			// MixinAware processing
-			if (MixinAware.class.isAssignableFrom(mixin.getMixinImpl())) {
-				jsb.line("{");
-				jsb.line("%s.setMixinBase(this); // MixinAware fulfilment", varName);
-				jsb.line("}");
+	/**
+	 * Return the mixed class for each mixin base. Classes that were neither precompiled nor
+	 * cached are compiled together, with one compiler and class loader per parent class loader.
+	 */
+	static Map<Class<?>, Class<?>> getMixedClasses(Map<Class<?>, List<Mixin<?>>> mixinsByBase) {
+		MixedClassCache cache = MixedClassCache.getConfiguredCache();
+		List<MixedClassJob> jobs = new ArrayList<MixedClassJob>();
+		Map<ClassLoader, List<MixedClassJob>> uncompiledJobs = new LinkedHashMap<ClassLoader, List<MixedClassJob>>();
+		for (Map.Entry<Class<?>, List<Mixin<?>>> entry: mixinsByBase.entrySet()) {
+			MixedClassJob job = new MixedClassJob(entry.getKey(), entry.getValue());
+			jobs.add(job);
+			Object event = FlightRecorderEvents.MIXED_CLASS_GENERATED.begin();
+			job.mixedClass = findPrecompiledClass(job.fullMixedClassName, job.mixinBase, job.mixins);
+			if (job.mixedClass != null) {
+				job.commitEvent(event, "precompiled");
+				continue;
 			}
-			// method delegations
-			for (Method method: mixin.getMixinType().getMethods()) {
-				String returnType = method.getReturnType().getName();
-				String methodName = method.getName();
-				jsb.line("public %s %s(%s) {", returnType, methodName , getArgs(method.getParameterTypes(), true));
-				String rtn = method.getReturnType().equals(Void.TYPE) ? "" : "return ";
-				jsb.line("%s%s.%s(%s);", rtn, varName, methodName, getArgs(method.getParameterTypes(), false));
-				jsb.line("}");
+			long start = System.nanoTime();
+			job.generateSource();
+			ClassGenerationStatistics.SOURCE_GENERATION_TIME.add(System.nanoTime() - start);
+			if (cache != null) {
+				job.readFromCache(cache);
+				if (job.mixedClass != null) {
+					ClassGenerationStatistics.CLASS_CACHE_HITS.increment();
+					job.commitEvent(event, "class cache");
+				} else {
+					ClassGenerationStatistics.CLASS_CACHE_MISSES.increment();
+				}
+			}
+			if (job.mixedClass == null) {
+				ClassLoader parent = job.mixinBase.getClassLoader();
+				if (!uncompiledJobs.containsKey(parent)) {
+					uncompiledJobs.put(parent, new ArrayList<MixedClassJob>());
+				}
+				uncompiledJobs.get(parent).add(job);
 			}
 		}
 		
-		// write constructors
-		for (Constructor<?> constructor: mixinBase.getDeclaredConstructors()) {
-			if (!Modifier.isPrivate(constructor.getModifiers())) {
-				jsb.line("public %s(%s) {", mixedClassName, getArgs(constructor.getParameterTypes(), true));
-				jsb.line("super(%s);", getArgs(constructor.getParameterTypes(), false));
-				jsb.line("}");
+		for (Map.Entry<ClassLoader, List<MixedClassJob>> entry: uncompiledJobs.entrySet()) {
+			JaninoCompiler compiler = new JaninoCompiler(entry.getKey());
+			MixedClassLoader loader = new MixedClassLoader(entry.getKey());
+			Set<String> definedNames = new HashSet<String>();
+			for (MixedClassJob job: entry.getValue()) {
+				if (!definedNames.add(job.fullMixedClassName)) {
+					// nested mixin bases with the same simple name have mixed classes with the same name
+					loader = new MixedClassLoader(entry.getKey());
+					definedNames.clear();
+					definedNames.add(job.fullMixedClassName);
+				}
+				Object event = FlightRecorderEvents.MIXED_CLASS_GENERATED.begin();
+				long start = System.nanoTime();
+				Map<String, byte[]> classFiles = compiler.compile(job.sourceCode);
+				ClassGenerationStatistics.COMPILATION_TIME.add(System.nanoTime() - start);
+				ClassGenerationStatistics.CLASSES_COMPILED.increment();
+				job.mixedClass = defineClasses(job.fullMixedClassName, classFiles, loader);
+				job.commitEvent(event, "compiled");
+				if (job.cacheKey != null) {
+					cache.write(job.fullMixedClassName, job.cacheKey, classFiles);
+				}
 			}
 		}
 		
-		// close class
-		jsb.line(COMPILATION_ONLY + "}");
+		Map<Class<?>, Class<?>> mixedClasses = new LinkedHashMap<Class<?>, Class<?>>();
+		String sourceRoot = System.getProperty(SAVE_ROOT_PROPERTY);
+		for (MixedClassJob job: jobs) {
+			if (sourceRoot != null && job.generator != null) {
+				saveSourceCode(sourceRoot, job.generator.getSource(true), job.mixedClass);
+			}
+			mixedClasses.put(job.mixinBase, job.mixedClass);
+		}
+		return mixedClasses;
+	}
+	
+	/**
+	 * The work of getting the mixed class for one mixin base
+	 */
+	private static class MixedClassJob {
 		
-		ClassBodyEvaluator eval = new ClassBodyEvaluator();
+		final Class<?> mixinBase;
+		final List<Mixin<?>> mixins;
+		final String packageName;
+		final String mixedClassName;
+		final String fullMixedClassName;
 		
-		String fullMixedClassName = mixinBase.getPackage().getName() + "." + mixedClassName;
-		eval.setExtendedType(mixinBase);
-		eval.setClassName(fullMixedClassName);
-		eval.setParentClassLoader(mixinBase.getClassLoader());
-		String sourceCode = jsb.toString();
-		try {
-			eval.cook(sourceCode);
-		} catch (Exception e) {
-			throw new MixinException("Error while generating source code: \n" + sourceCode, e);
+		MixedClassSourceGenerator generator;
+		String sourceCode;
+		String cacheKey;
+		Class<?> mixedClass;
+		
+		MixedClassJob(Class<?> mixinBase, List<Mixin<?>> mixins) {
+			this.mixinBase = mixinBase;
+			this.mixins = mixins;
+			packageName = mixinBase.getPackage().getName();
+			mixedClassName = MixedClassSourceGenerator.getMixedClassName(mixinBase.getSimpleName());
+			fullMixedClassName = packageName + "." + mixedClassName;
 		}
 		
-		Class<? extends T> mixedClass = eval.getClazz();
+		void generateSource() {
+			generator = new MixedClassSourceGenerator(packageName, mixedClassName, getSourceName(mixinBase));
+			for (Mixin<?> mixin: mixins) {
+				if (mixin.isStateless()) {
+					generator.addStatelessMixin(getSourceName(mixin.getMixinType()), getSourceName(mixin.getMixinImpl()));
+				} else {
+					generator.addMixin(getSourceName(mixin.getMixinType()), getSourceName(mixin.getMixinImpl()),
+							MixinAware.class.isAssignableFrom(mixin.getMixinImpl()), mixin.isLazy());
+				}
+				for (Method method: mixin.getMixinType().getMethods()) {
+					boolean passMixedObject = mixin.isStateless()
+							&& !MixinUtils.getStatelessMethod(mixin.getMixinImpl(), method, mixinBase).equals(method);
+					generator.addDelegatedMethod(getSourceName(method.getReturnType()), method.getName(),
+							getSourceNames(method.getParameterTypes()), passMixedObject);
+				}
+			}
+			for (Constructor<?> constructor: getMixableConstructors(mixinBase)) {
+				generator.addConstructor(getSourceNames(constructor.getParameterTypes()));
+			}
+			// Janino can't compile annotations
+			sourceCode = generator.getSource(false);
+		}
 		
-		String sourceRoot = System.getProperty(SAVE_ROOT_PROPERTY);
-		if (sourceRoot != null) {
-			saveSourceCode(sourceRoot, sourceCode, mixedClass);
+		/**
+		 * Record a {@link FlightRecorderEvents#MIXED_CLASS_GENERATED} event, if one was started
+		 */
+		void commitEvent(Object event, String origin) {
+			FlightRecorderEvents.MIXED_CLASS_GENERATED.commit(event, mixinBase, mixins.size(),
+					sourceCode == null ? 0 : sourceCode.length(), origin);
 		}
 		
+		void readFromCache(MixedClassCache cache) {
+			cacheKey = cache.getKey(sourceCode, getDependencies(mixinBase, mixins));
+			Map<String, byte[]> classFiles = cacheKey == null ? null : cache.read(fullMixedClassName, cacheKey);
+			if (classFiles != null) {
+				try {
+					mixedClass = defineClasses(fullMixedClassName, classFiles, new MixedClassLoader(mixinBase.getClassLoader()));
+				} catch (LinkageError e) {
+					// a damaged cache file, replace it
+				}
+			}
+		}
+		
+	}
+	
+	private static Class<?> defineClasses(String mixedClassName, Map<String, byte[]> classFiles, MixedClassLoader loader) {
+		Class<?> mixedClass = null;
+		for (Map.Entry<String, byte[]> classFile: classFiles.entrySet()) {
+			Class<?> defined = loader.define(classFile.getKey(), classFile.getValue());
+			if (classFile.getKey().equals(mixedClassName)) {
+				mixedClass = defined;
+			}
+		}
+		if (mixedClass == null) {
+			throw new LinkageError("No class file for " + mixedClassName);
+		}
 		return mixedClass;
 	}
+	
+	/**
+	 * The classes whose class files the generated class is derived from
+	 */
+	private static List<Class<?>> getDependencies(Class<?> mixinBase, List<Mixin<?>> mixins) {
+		List<Class<?>> dependencies = new ArrayList<Class<?>>();
+		dependencies.add(mixinBase);
+		for (Mixin<?> mixin: mixins) {
+			dependencies.add(mixin.getMixinType());
+			dependencies.add(mixin.getMixinImpl());
+		}
+		return dependencies;
+	}
+	
+	/**
+	 * Return a mixed class generated at compile time by {@link MixinBaseProcessor}, or null if
+	 * there isn't one that applies the required mixins.
+	 */
+	private static Class<?> findPrecompiledClass(String fullMixedClassName, Class<?> mixinBase, List<Mixin<?>> mixins) {
+		Class<?> candidate;
+		try {
+			candidate = Class.forName(fullMixedClassName, true, mixinBase.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+		PrecompiledMixins annotation = candidate.getAnnotation(PrecompiledMixins.class);
+		if (annotation == null || !mixinBase.equals(candidate.getSuperclass())
+				|| annotation.mixinTypes().length != mixins.size()) {
+			return null;
+		}
+		for (int i=0; i<mixins.size(); i++) {
+			if (!annotation.mixinTypes()[i].equals(mixins.get(i).getMixinType())
+					|| !annotation.mixinImplementations()[i].equals(mixins.get(i).getMixinImpl())
+					|| getFlag(annotation.lazyMixins(), i) != mixins.get(i).isLazy()
+					|| getFlag(annotation.statelessMixins(), i) != mixins.get(i).isStateless()) {
+				// the mixins have been provided at runtime, or were changed since it was compiled
+				return null;
+			}
+		}
+		return candidate;
+	}
+	
+	private static boolean getFlag(boolean[] flags, int index) {
+		return index < flags.length && flags[index];
+	}
 
-	private void saveSourceCode(String sourceRoot, String sourceCode, Class<?> mixedClass) {
+	private static void saveSourceCode(String sourceRoot, String sourceCode, Class<?> mixedClass) {
 		String packagePath = mixedClass.getPackage().getName().replace('.', '/');
 		File packageFolder = new File(sourceRoot, packagePath);
 		if (!packageFolder.exists() && !packageFolder.mkdirs()) {
@@ -119,82 +293,50 @@ class JanioSourceGeneratingFactory<T> implements Factory<T> {
 		File javaFile = new File(packageFolder, mixedClass.getSimpleName() + ".java");
 		try {
 			BufferedWriter bw = new BufferedWriter(new FileWriter(javaFile));
-			bw.write(sourceCode.replace(COMPILATION_ONLY, ""));
+			bw.write(sourceCode);
 			bw.close();
 		} catch (IOException e) {
 			throw new MixinException("Could not write file " + javaFile + ", fix the issue or remove the " + SAVE_ROOT_PROPERTY + " property.");
 		}
 	}
 
-	private String getArgs(Class<?>[] parameterTypes, boolean withTypes) {
-		StringBuilder sb = new StringBuilder();
-		for (int i=0; i<parameterTypes.length; i++) {
-			if (withTypes) {
-				sb.append(parameterTypes[i].getName());
-				sb.append(' ');
-			}
-			sb.append("arg");
-			sb.append(i);
-			if (i < parameterTypes.length - 1) {
-				sb.append(", ");
-			}
-		}
-		return sb.toString();
-	}
+}
 
-	@Override
-	public T newInstance() {
-		try {
-			return mixedClass.newInstance();
-		} catch (Exception e) {
-			throw new MixinException("The constructor invocation threw an exception", e);
-		}
+/**
+ * <p>Compiles generated source code with Janino. This is kept apart from {@link JanioSourceGeneratingFactory}
+ * so that Janino is only loaded if something needs compiling, and isn't needed at all if every
+ * mixed class was precompiled or cached.
+ */
+class JaninoCompiler {
+
+	// resolves the classes referred to by the source code, and caches them between compilations
+	private final IClassLoader classLoader;
+
+	/**
+	 * @param parent the class loader of the classes that the compiled source code refers to
+	 */
+	JaninoCompiler(ClassLoader parent) {
+		classLoader = new ClassLoaderIClassLoader(parent);
 	}
 
-	@Override
-	public T newInstance(Class<?>[] constructorArgTypes,
-			Object[] constructorArgs) {
-		if (constructorArgTypes.length == 0) {
-			return newInstance();
-		}
+	/**
+	 * Compile the source code of a mixed class, returning the bytecode of the class and its
+	 * nested classes mapped from class name
+	 */
+	Map<String, byte[]> compile(String sourceCode) {
+		Map<String, byte[]> classFiles = new LinkedHashMap<String, byte[]>();
 		try {
-			return mixedClass.getConstructor(constructorArgTypes).newInstance(constructorArgs);
+			Java.CompilationUnit unit = new Parser(new Scanner(null, new StringReader(sourceCode))).parseCompilationUnit();
+			UnitCompiler compiler = new UnitCompiler(unit, classLoader);
+			for (ClassFile classFile: compiler.compileUnit(DebuggingInformation.DEFAULT_DEBUGGING_INFORMATION)) {
+				classFiles.put(classFile.getThisClassName(), classFile.toByteArray());
+			}
 		} catch (Exception e) {
-			throw new MixinException("The constructor invocation threw an exception", e);
-		}
-	}
-	
-}
-
-class JavaSourceBuilder {
-	
-	private int indentation = 0;
-	
-	private StringBuilder sb = new StringBuilder();
-	
-
-	public void line(String text, Object... parameters) {
-		if (text.indexOf('}') != -1) {
-			indentation --;
-		}
-		for (int i=0; i<indentation; i++) {
-			sb.append("    ");
-		}
-		sb.append(String.format(text, (Object[]) parameters));
-		sb.append('\n');
-		if (text.indexOf('{') != -1) {
-			indentation ++;
+			throw new MixinException("Error while generating source code: \n" + sourceCode, e);
 		}
-	}
-	
-	public void line() {
-		sb.append('\n');
+		return classFiles;
 	}
 
-	public String toString() {
-		return sb.toString();
-	}
-	
 }
 
 
@@ -0,0 +1,25 @@
+package com.berniecode.mixin4j;
+
+/**
+ * <p>Counters for the work done by {@link ClassGeneratingMixer}. Mixers aren't tied to a
+ * {@link MixinSupport}, so these are shared by the whole JVM, and are included in the
+ * statistics of every MixinSupport.
+ *
+ * @author Bernard Sumption
+ */
+class ClassGenerationStatistics {
+
+	static final StripedCounter SOURCE_GENERATION_TIME = new StripedCounter();
+
+	static final StripedCounter COMPILATION_TIME = new StripedCounter();
+
+	static final StripedCounter CLASSES_COMPILED = new StripedCounter();
+
+	static final StripedCounter CLASS_CACHE_HITS = new StripedCounter();
+
+	static final StripedCounter CLASS_CACHE_MISSES = new StripedCounter();
+
+	private ClassGenerationStatistics() {
+	}
+
+}
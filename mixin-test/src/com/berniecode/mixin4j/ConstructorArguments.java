@@ -0,0 +1,20 @@
+package com.berniecode.mixin4j;
+
+/**
+ * <p>Supplies the constructor arguments of each object in a batch created by
+ * {@link AbstractFactory#newInstances(int, Class[], ConstructorArguments)}.
+ * 
+ * @author Bernard Sumption
+ */
+public interface ConstructorArguments {
+	
+	/**
+	 * Return the arguments for one object in the batch. The array may be reused for the next
+	 * object, as the constructor has been called with it before this is called again.
+	 * 
+	 * @param index the position of the object in the batch, starting at 0
+	 * @return The value of the arguments, in the order that the constructor declares them
+	 */
+	public Object[] getArguments(int index);
+
+}
@@ -0,0 +1,25 @@
+package com.berniecode.mixin4j;
+
+/**
+ * <p>Invokes one particular constructor of a mixed class without using reflection.
+ * 
+ * <p>{@link ClassGeneratingMixer} generates an implementation of this interface for each
+ * constructor of each mixed class, so that creating a mixed object is a plain <code>new</code>
+ * expression. It is public only so that generated code can implement it; client code should
+ * create objects through a {@link Factory}, or get an invoker from
+ * {@link AbstractFactory#getConstructor(Class[])}.
+ * 
+ * @param <T> the type that will be created
+ * 
+ * @author Bernard Sumption
+ */
+public interface ConstructorInvoker<T> {
+	
+	/**
+	 * Create a new object
+	 * 
+	 * @param constructorArgs The value of the arguments, in the order that the constructor declares them
+	 */
+	public T newInstance(Object[] constructorArgs);
+
+}
@@ -1,20 +1,31 @@
 package com.berniecode.mixin4j;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.Set;
 
+import net.sf.cglib.asm.Type;
+import net.sf.cglib.core.ReflectUtils;
+import net.sf.cglib.core.Signature;
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CallbackFilter;
 import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
+import net.sf.cglib.proxy.NoOp;
+import net.sf.cglib.reflect.FastClass;
 
 /**
- * <p>Use CGLib proxies to subclass the base class. All calls to the base class are intercepted, and
- * calls to methods from the Mixin interfaces are trapped and dispatched to an instance of
- * the appropriate mixin implementation class.
+ * <p>Use CGLib proxies to subclass the base class. Calls to methods from the Mixin interfaces are
+ * intercepted and dispatched to an instance of the appropriate mixin implementation class, using
+ * CGLib FastClasses rather than reflection. Other methods of the base class are not intercepted.
  * 
  * @author Bernard Sumption
  */
@@ -51,13 +62,14 @@ public class DynamicProxyMixer implements Mixer {
 			}
 		}
 		
-		DelegatingMethodInterceptor interceptor = new DelegatingMethodInterceptor(delegateClasses);
-		
         final Enhancer enhancer = new Enhancer();
         enhancer.setSuperclass(mixinBase);
-        enhancer.setCallback(interceptor);
+        // each instance gets its own interceptor holding its delegates, see CGLibEnhancerFactory
+        enhancer.setCallbackTypes(new Class<?>[] {NoOp.class, DelegatingMethodInterceptor.class}); // see MixinMethodFilter
+        enhancer.setCallbackFilter(new MixinMethodFilter(delegateClasses.keySet()));
+        Class<?> proxyClass = enhancer.createClass();
 
-		return new CGLibEnhancerFactory<T>(enhancer, interceptor, mixinBase);
+		return new CGLibEnhancerFactory<T>(proxyClass, new DelegateDispatchTable(mixinBase, proxyClass, delegateClasses), mixinBase);
 	}
 
 	private void getAllInterfacesForClass(Class<?> type, List<Class<?>> accumulator) {
@@ -70,111 +82,388 @@ public class DynamicProxyMixer implements Mixer {
 }
 
 /**
- * A {@link Factory} that uses CGLib enhancers to generate instances of a mixed class
+ * <p>A {@link Factory} that uses CGLib enhancers to generate instances of a mixed class.
+ * 
+ * <p>Each instance's mixin implementations are held by its own {@link DelegatingMethodInterceptor},
+ * which CGLib stores in a field of the instance when it is constructed, so there is no shared
+ * registry of instances and nothing to lock. If all of the implementations are {@link Stateless},
+ * every instance shares one interceptor.
+ * 
  * @author Bernard Sumption
  */
-class CGLibEnhancerFactory <T> implements Factory <T> {
+class CGLibEnhancerFactory <T> extends AbstractFactory <T> {
 	
-	private Enhancer enhancer;
-	private DelegatingMethodInterceptor interceptor;
+	private Class<?> proxyClass;
+	private DelegateDispatchTable dispatchTable;
 	private Class<T> typeExpected;
 	
-	public CGLibEnhancerFactory(Enhancer enhancer, DelegatingMethodInterceptor interceptor, Class<T> typeExpected) {
-		this.enhancer = enhancer;
-		this.interceptor = interceptor;
+	// an instance that is never returned, created without running any constructor. CGLib proxies
+	// implement net.sf.cglib.proxy.Factory, which can create further instances with specific
+	// callbacks by calling their constructors directly. Null if the JVM can't create it.
+	private final net.sf.cglib.proxy.Factory prototype;
+	
+	// the callbacks shared by all instances, or null if each instance needs its own
+	private Callback[] sharedCallbacks;
+	
+	public CGLibEnhancerFactory(Class<?> proxyClass, DelegateDispatchTable dispatchTable, Class<T> typeExpected) {
+		this.proxyClass = proxyClass;
+		this.dispatchTable = dispatchTable;
 		this.typeExpected = typeExpected;
+		if (dispatchTable.isStateless()) {
+			sharedCallbacks = createCallbacks();
+			getInterceptor(sharedCallbacks).setDelegates(dispatchTable.createDelegates(null));
+		}
+		prototype = createPrototype();
+	}
+	
+	/**
+	 * Create an instance of a proxy class to create other instances with, without running any of
+	 * the constructors of the mixin base, which could have side effects. Only the JVM's
+	 * serialisation support can do this, so it is found by reflection, and null is returned if it
+	 * isn't available.
+	 */
+	private net.sf.cglib.proxy.Factory createPrototype() {
+		try {
+			Class<?> reflectionFactoryClass = Class.forName("sun.reflect.ReflectionFactory");
+			Object reflectionFactory = reflectionFactoryClass.getMethod("getReflectionFactory").invoke(null);
+			Constructor<?> constructor = (Constructor<?>) reflectionFactoryClass
+					.getMethod("newConstructorForSerialization", Class.class, Constructor.class)
+					.invoke(reflectionFactory, proxyClass, Object.class.getDeclaredConstructor());
+			net.sf.cglib.proxy.Factory prototype = (net.sf.cglib.proxy.Factory) constructor.newInstance();
+			// throwaway callbacks, so that it doesn't share an interceptor with real instances
+			prototype.setCallbacks(createCallbacks());
+			return prototype;
+		} catch (Exception e) {
+			return null;
+		}
 	}
 	public T newInstance(Class<?>[] constructorArgTypes, Object[] constructorArgs) {
+		Object event = FlightRecorderEvents.MIXED_OBJECT_CREATED.beginSample();
+		T newObject = create(constructorArgTypes, constructorArgs, getProxyConstructor(constructorArgTypes));
+		if (event != null) {
+			FlightRecorderEvents.MIXED_OBJECT_CREATED.commit(event, proxyClass, FlightRecorderEvents.SAMPLE_INTERVAL);
+		}
+		return newObject;
+	}
+	/**
+	 * Return the constructor of the proxy class to create instances with, or null if they are
+	 * created by the prototype
+	 */
+	private Constructor<?> getProxyConstructor(Class<?>[] constructorArgTypes) {
+		return prototype != null ? null : ReflectUtils.getConstructor(proxyClass, constructorArgTypes);
+	}
+	/**
+	 * Create an instance without recording a flight recorder event
+	 * 
+	 * @param constructor from {@link #getProxyConstructor(Class[])}
+	 */
+	private T create(Class<?>[] constructorArgTypes, Object[] constructorArgs, Constructor<?> constructor) {
+		Callback[] callbacks = sharedCallbacks != null ? sharedCallbacks : createCallbacks();
+		Object newObject;
+		if (prototype != null) {
+			newObject = prototype.newInstance(constructorArgTypes, constructorArgs, callbacks);
+		} else {
+			// CGLib binds callbacks registered for the current thread to objects constructed on it
+			Enhancer.registerCallbacks(proxyClass, callbacks);
+			try {
+				newObject = ReflectUtils.newInstance(constructor, constructorArgs);
+			} finally {
+				Enhancer.registerCallbacks(proxyClass, null);
+			}
+		}
+		if (callbacks != sharedCallbacks) {
+			getInterceptor(callbacks).setDelegates(dispatchTable.createDelegates(newObject));
+		}
 		// safe as long as CGLib returns the correct type of object
-		return processNewObject(enhancer.create(constructorArgTypes, constructorArgs));
+		return typeExpected.cast(newObject);
 	}
 	public T newInstance() {
-		// safe as long as CGLib returns the correct type of object
-		return processNewObject(enhancer.create());
+		return newInstance(new Class<?>[0], new Object[0]);
 	}
-	
-	private T processNewObject(Object newObject) {
-		interceptor.registerNewObject(newObject);
-		return typeExpected.cast(newObject);
+	public List<T> newInstances(int count, Class<?>[] constructorArgTypes, ConstructorArguments constructorArgs) {
+		checkBatch(count, constructorArgTypes, constructorArgs);
+		checkConstructor(constructorArgTypes);
+		Constructor<?> constructor = getProxyConstructor(constructorArgTypes);
+		List<T> instances = new ArrayList<T>(count);
+		// one event for the whole batch, rather than sampling its objects
+		Object event = FlightRecorderEvents.MIXED_OBJECT_CREATED.begin();
+		for (int i=0; i<count; i++) {
+			instances.add(create(constructorArgTypes, getArguments(constructorArgs, i), constructor));
+		}
+		if (event != null) {
+			FlightRecorderEvents.MIXED_OBJECT_CREATED.commit(event, proxyClass, count);
+		}
+		return instances;
+	}
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>CGLib proxies can only be created with callbacks, so this calls {@link #newInstance(Class[], Object[])},
+	 * and has no performance advantage.
+	 */
+	public <C> C getTypedConstructor(Class<C> constructorInterface) {
+		return TypedConstructors.createReflective(constructorInterface, typeExpected, this);
+	}
+	private Callback[] createCallbacks() {
+		// in the order of MixinMethodFilter.NO_OP and MixinMethodFilter.DELEGATE
+		return new Callback[] {NoOp.INSTANCE, new DelegatingMethodInterceptor(dispatchTable)};
+	}
+	private DelegatingMethodInterceptor getInterceptor(Callback[] callbacks) {
+		return (DelegatingMethodInterceptor) callbacks[MixinMethodFilter.DELEGATE];
+	}
+	public ConstructorInvoker<T> getConstructor(final Class<?>[] constructorArgTypes) {
+		checkConstructor(constructorArgTypes);
+		final Constructor<?> constructor = getProxyConstructor(constructorArgTypes);
+		return new ConstructorInvoker<T>() {
+			public T newInstance(Object[] constructorArgs) {
+				// MixinSupport records the event for objects created by constructor invokers
+				return create(constructorArgTypes, constructorArgs, constructor);
+			}
+		};
+	}
+	private void checkConstructor(Class<?>[] constructorArgTypes) {
+		try {
+			typeExpected.getDeclaredConstructor(constructorArgTypes);
+		} catch (NoSuchMethodException e) {
+			throw new MixinException("Class " + typeExpected.getCanonicalName()
+					+ " has no constructor with arguments " + Arrays.toString(constructorArgTypes), e);
+		}
 	}
 }
 
 /**
- * <p>This CGLib MethodInterceptor traps every call to the generated object, and decides whether to
- * delegate it to a mixin implementation, or to the super class (the mixin base)
+ * <p>Routes methods declared by mixin type interfaces to the {@link DelegatingMethodInterceptor}, and
+ * leaves all other methods alone so that the base class's own methods are not intercepted at all.
  * 
  * @author Bernard Sumption
  */
-class DelegatingMethodInterceptor implements MethodInterceptor {
+class MixinMethodFilter implements CallbackFilter {
 	
-	// stored constructor arg
-	private Map<Class<?>, Class<?>> interfaceToImplementationMap;
+	// indexes into the callbacks array registered by CGLibEnhancerFactory
+	static final int NO_OP = 0;
+	static final int DELEGATE = 1;
 	
+	private final Set<Class<?>> mixinInterfaces;
+	
+	MixinMethodFilter(Set<Class<?>> mixinInterfaces) {
+		this.mixinInterfaces = new HashSet<Class<?>>(mixinInterfaces);
+	}
+
 	/**
-	 * A weakly keyed map that stores the delegate map as returned by createDelegateMap for each active mixed object
+	 * {@inheritDoc}
 	 */
-	private Map<Object, Map<Class<?>, Object>> delegateMaps = new WeakHashMap<Object, Map<Class<?>, Object>>();
+	public int accept(Method method) {
+		return mixinInterfaces.contains(method.getDeclaringClass()) ? DELEGATE : NO_OP;
+	}
+	
+	// CGLib uses the filter as part of the key for its cache of generated classes
+	
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof MixinMethodFilter && ((MixinMethodFilter) obj).mixinInterfaces.equals(mixinInterfaces);
+	}
+	
+	@Override
+	public int hashCode() {
+		return mixinInterfaces.hashCode();
+	}
+}
+
+/**
+ * <p>Decides which mixin implementation, if any, each method of a proxy class should be
+ * dispatched to, so that {@link DelegatingMethodInterceptor} can look it up by index instead
+ * of by the method's declaring class.
+ * 
+ * @author Bernard Sumption
+ */
+class DelegateDispatchTable {
+	
+	// the distinct mixin implementation classes, and FastClasses to call them with
+	private final Class<?>[] implementationClasses;
+	private final FastClass[] implementationFastClasses;
+	
+	// the shared instances of Stateless implementations, with null for the others
+	private final Object[] sharedDelegates;
+	private final boolean stateless;
+	
+	// whether each implementation is MixinAware, whose constraint was checked when its Mixin was created
+	private final boolean[] mixinAware;
+	
+	// indexed by the super index of the proxy's MethodProxy for a method: the index of the
+	// implementation that the method is delegated to (-1 if it isn't), the method's index
+	// in that implementation's FastClass, and whether it takes the mixed object as its first argument
+	private final int[] delegateIndexes;
+	private final int[] methodIndexes;
+	private final boolean[] passesMixedObject;
 	
 	/**
-	 * <p>Constructor
-	 * 
 	 * @param interfaceToImplementationMap A map of any mixin type interfaces or super-types of mixin type interfaces
 	 * to the mixin implementation class that implements that interface.
 	 */
-	public DelegatingMethodInterceptor(Map<Class<?>, Class<?>> interfaceToImplementationMap) {
-		this.interfaceToImplementationMap = interfaceToImplementationMap;
+	DelegateDispatchTable(Class<?> mixinBase, Class<?> proxyClass, Map<Class<?>, Class<?>> interfaceToImplementationMap) {
+		List<Class<?>> implementations = new ArrayList<Class<?>>();
+		for (Class<?> implementation: interfaceToImplementationMap.values()) {
+			if (!implementations.contains(implementation)) {
+				implementations.add(implementation);
+			}
+		}
+		implementationClasses = implementations.toArray(new Class<?>[implementations.size()]);
+		implementationFastClasses = new FastClass[implementationClasses.length];
+		sharedDelegates = new Object[implementationClasses.length];
+		mixinAware = new boolean[implementationClasses.length];
+		boolean allStateless = true;
+		for (int i=0; i<implementationClasses.length; i++) {
+			mixinAware[i] = MixinAware.class.isAssignableFrom(implementationClasses[i]);
+			implementationFastClasses[i] = FastClass.create(implementationClasses[i]);
+			if (implementationClasses[i].isAnnotationPresent(Stateless.class)) {
+				sharedDelegates[i] = createDelegate(i);
+			} else {
+				allStateless = false;
+			}
+		}
+		stateless = allStateless;
+		
+		// a method is delegated if the base class doesn't implement it, so that the proxy sees it
+		// declared by the mixin type interface. This must agree with MixinMethodFilter.
+		Map<Integer, Method> delegatedMethods = new HashMap<Integer, Method>();
+		int maxIndex = -1;
+		for (Method method: mixinBase.getMethods()) {
+			if (interfaceToImplementationMap.containsKey(method.getDeclaringClass())) {
+				Signature signature = new Signature(method.getName(),
+						Type.getReturnType(method), Type.getArgumentTypes(method));
+				int superIndex = MethodProxy.find(proxyClass, signature).getSuperIndex();
+				delegatedMethods.put(superIndex, method);
+				maxIndex = Math.max(maxIndex, superIndex);
+			}
+		}
+		delegateIndexes = new int[maxIndex + 1];
+		methodIndexes = new int[maxIndex + 1];
+		passesMixedObject = new boolean[maxIndex + 1];
+		Arrays.fill(delegateIndexes, -1);
+		for (Map.Entry<Integer, Method> entry: delegatedMethods.entrySet()) {
+			Method method = entry.getValue();
+			int delegateIndex = implementations.indexOf(interfaceToImplementationMap.get(method.getDeclaringClass()));
+			Method target = method;
+			if (sharedDelegates[delegateIndex] != null) {
+				target = MixinUtils.getStatelessMethod(implementationClasses[delegateIndex], method, mixinBase);
+			}
+			delegateIndexes[entry.getKey()] = delegateIndex;
+			methodIndexes[entry.getKey()] = implementationFastClasses[delegateIndex]
+					.getIndex(target.getName(), target.getParameterTypes());
+			passesMixedObject[entry.getKey()] = !target.equals(method);
+		}
 	}
-
+	
 	/**
-	 * <p>Called by CGLibEnhancerFactory before the object is returned so that we can create the delegate instances
-	 * 
-	 * @param newMixedObject the newly created object
+	 * @return true if all of the implementations are {@link Stateless}, so that every mixed object
+	 * can share the same delegates
 	 */
-	void registerNewObject(Object newMixedObject) {
-		delegateMaps.put(newMixedObject, createDelegateMap(newMixedObject));
+	boolean isStateless() {
+		return stateless;
 	}
 
 	/**
-	 * <p>Convert a 'map of interfaces to implementing classes', to a 'map of interfaces to instances of
-	 * implementing objects'. There must be only one instance per class.
+	 * <p>Create an instance of each implementation class for a new mixed object, in the order
+	 * expected by {@link #invoke(Object[], int, Object, Object[])}. There is only one instance per
+	 * class, and {@link Stateless} implementations use the instance shared by all mixed objects.
 	 */
-	private Map<Class<?>, Object> createDelegateMap(Object newMixedObject) {
-		synchronized (delegateMaps) {
-			Map<Class<?>, Object> delegates = new HashMap<Class<?>, Object>();
-			Map<Class<?>, Object> implementationClassToObjectMap = new HashMap<Class<?>, Object>();
-			for (Class<?> interfaceClass: interfaceToImplementationMap.keySet()) {
-				Class<?> implementationClass = interfaceToImplementationMap.get(interfaceClass);
-				if (!implementationClassToObjectMap.containsKey(implementationClass)) {
-					Object implementation;
-					try {
-						implementation = implementationClass.newInstance();
-						implementationClassToObjectMap.put(implementationClass, implementation);
-					} catch (Exception e) {
-						throw new MixinException("Could not create mixin implementation instance", e);
-					}
-					MixinUtils.handleMixinAwareness(implementation, newMixedObject,
-							newMixedObject.getClass().getSuperclass());
+	Object[] createDelegates(Object newMixedObject) {
+		if (stateless) {
+			return sharedDelegates;
+		}
+		Object[] delegates = sharedDelegates.clone();
+		for (int i=0; i<delegates.length; i++) {
+			if (delegates[i] == null) {
+				delegates[i] = createDelegate(i);
+				if (mixinAware[i]) {
+					// safe because the MixinAware constraint was checked when the Mixin was created
+					@SuppressWarnings("unchecked")
+					MixinAware<Object> delegate = (MixinAware<Object>) delegates[i];
+					delegate.setMixinBase(newMixedObject);
 				}
-				delegates.put(interfaceClass, implementationClassToObjectMap.get(implementationClass));
 			}
-			return delegates;
 		}
+		return delegates;
+	}
+	
+	private Object createDelegate(int index) {
+		try {
+			return implementationFastClasses[index].newInstance();
+		} catch (Exception e) {
+			throw new MixinException("Could not create mixin implementation instance", e);
+		}
+	}
+	
+	/**
+	 * @return true if the method with a given MethodProxy super index is delegated to a mixin implementation
+	 */
+	boolean isDelegated(int superIndex) {
+		return superIndex < delegateIndexes.length && delegateIndexes[superIndex] != -1;
+	}
+	
+	/**
+	 * Call the method with a given MethodProxy super index on the appropriate delegate
+	 */
+	Object invoke(Object[] delegates, int superIndex, Object mixedObject, Object[] args) throws Throwable {
+		int delegateIndex = delegateIndexes[superIndex];
+		if (passesMixedObject[superIndex]) {
+			Object[] argsWithMixedObject = new Object[args.length + 1];
+			argsWithMixedObject[0] = mixedObject;
+			System.arraycopy(args, 0, argsWithMixedObject, 1, args.length);
+			args = argsWithMixedObject;
+		}
+		try {
+			return implementationFastClasses[delegateIndex].invoke(methodIndexes[superIndex], delegates[delegateIndex], args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+}
+
+/**
+ * <p>This CGLib MethodInterceptor traps calls to the mixin type methods of a generated object, and
+ * delegates them to a mixin implementation. There is one instance per generated object, holding
+ * that object's mixin implementations, unless they are all {@link Stateless}.
+ * 
+ * @author Bernard Sumption
+ */
+class DelegatingMethodInterceptor implements MethodInterceptor {
+	
+	private final DelegateDispatchTable dispatchTable;
+	
+	private Object[] delegates;
+	
+	public DelegatingMethodInterceptor(DelegateDispatchTable dispatchTable) {
+		this.dispatchTable = dispatchTable;
+	}
+
+	/**
+	 * <p>Called by CGLibEnhancerFactory once the object has been created, before it is returned
+	 * 
+	 * @param delegates the mixin implementations, as returned by {@link DelegateDispatchTable#createDelegates(Object)}
+	 */
+	void setDelegates(Object[] delegates) {
+		this.delegates = delegates;
 	}
 
 	/**
-	 * The mixed object
+	 * {@inheritDoc}
 	 */
 	public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
-		Object delegate = null;
-		Class<?> declaringClass = method.getDeclaringClass();
-		if (!declaringClass.equals(Object.class)) { // don't intercept Object methods
-			Map<Class<?>, Object> delegateMap = delegateMaps.get(obj);
-			delegate = delegateMap.get(declaringClass);
-		}
-		if (delegate != null) {
-			return method.invoke(delegate, args);
-		} else {
-			return proxy.invokeSuper(obj, args);
+		int superIndex = proxy.getSuperIndex();
+		if (dispatchTable.isDelegated(superIndex)) {
+			Object event = FlightRecorderEvents.DELEGATED_CALL.beginSample();
+			if (event == null) {
+				return dispatchTable.invoke(delegates, superIndex, obj, args);
+			}
+			try {
+				return dispatchTable.invoke(delegates, superIndex, obj, args);
+			} finally {
+				FlightRecorderEvents.DELEGATED_CALL.commit(event, method.getDeclaringClass(), method.getName(),
+						FlightRecorderEvents.SAMPLE_INTERVAL);
+			}
 		}
+		// not expected, since MixinMethodFilter only sends delegated methods here
+		return proxy.invokeSuper(obj, args);
 	}
-}
\ No newline at end of file
+}
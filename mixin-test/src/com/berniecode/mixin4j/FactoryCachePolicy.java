@@ -0,0 +1,142 @@
+package com.berniecode.mixin4j;
+
+/**
+ * <p>How a {@link MixinSupport} caches the factories that it generates for mixin bases. By default
+ * the cache is unbounded and holds factories strongly, which suits applications with a fixed set of
+ * mixin bases. Applications that mix many short-lived classes can bound it, so that the factories and
+ * mixed classes of bases that are no longer used can be collected.
+ *
+ * <p>The cache never keeps mixin base classes alive itself, but a factory refers to its mixed class,
+ * which refers to the mixin base, so the {@link Retention} of factories decides whether a base that
+ * is otherwise unused stays loaded.
+ *
+ * <p>The default policy can be set with system properties, which are read when the first
+ * MixinSupport is created: {@value #MAXIMUM_SIZE_PROPERTY} (0 for unbounded),
+ * {@value #EVICTION_PROPERTY} (<code>LEAST_RECENTLY_USED</code> or <code>LEAST_FREQUENTLY_USED</code>)
+ * and {@value #RETENTION_PROPERTY} (<code>STRONG</code> or <code>SOFT</code>).
+ *
+ * @author Bernard Sumption
+ */
+public class FactoryCachePolicy {
+
+	static final String MAXIMUM_SIZE_PROPERTY = "com.berniecode.mixin4j.factoryCache.maximumSize";
+	static final String EVICTION_PROPERTY = "com.berniecode.mixin4j.factoryCache.eviction";
+	static final String RETENTION_PROPERTY = "com.berniecode.mixin4j.factoryCache.retention";
+
+	/**
+	 * Which factory to remove when the cache is full
+	 */
+	public enum Eviction {
+
+		/**
+		 * Remove the factory that was used longest ago. Recency is measured in factories added
+		 * to the cache, so factories used since the last one was added are equally recent.
+		 */
+		LEAST_RECENTLY_USED,
+
+		/**
+		 * Remove the factory that has created the fewest instances
+		 */
+		LEAST_FREQUENTLY_USED
+	}
+
+	/**
+	 * How strongly the cache holds factories
+	 */
+	public enum Retention {
+
+		/**
+		 * Factories stay in the cache until they are evicted. The factories of {@link BaseLoaderMixer},
+		 * which are cheap to recreate, are still held softly.
+		 */
+		STRONG,
+
+		/**
+		 * Factories may be collected when the JVM is short of memory. Only memory pressure collects
+		 * them: each use of a factory through the cache keeps it recently used, and the JVM clears the
+		 * soft references that were used longest ago first, so factories in constant use survive
+		 * until the memory is needed. To limit the cache otherwise, give it a maximum size.
+		 *
+		 * <p>There is no weak retention, because the cache holds the only reference to the task that
+		 * generates each factory, so weakly held factories would be collected at every garbage
+		 * collection however often they were used.
+		 */
+		SOFT
+	}
+
+	/**
+	 * An unbounded cache that holds factories strongly
+	 */
+	public static final FactoryCachePolicy UNBOUNDED = new FactoryCachePolicy(0, Eviction.LEAST_RECENTLY_USED, Retention.STRONG);
+
+	private final int maximumSize;
+	private final Eviction eviction;
+	private final Retention retention;
+
+	/**
+	 * @param maximumSize the largest number of factories to cache, or 0 for no limit
+	 * @param eviction which factory to remove when the cache is full
+	 * @param retention how strongly to hold factories
+	 */
+	public FactoryCachePolicy(int maximumSize, Eviction eviction, Retention retention) {
+		if (maximumSize < 0) {
+			throw new MixinException("maximumSize must be 0 or more, not " + maximumSize);
+		}
+		if (eviction == null || retention == null) {
+			throw new MixinException("eviction and retention are required");
+		}
+		this.maximumSize = maximumSize;
+		this.eviction = eviction;
+		this.retention = retention;
+	}
+
+	/**
+	 * Return the policy configured by system properties, or {@link #UNBOUNDED} if there are none
+	 *
+	 * @throws MixinException if a property has an invalid value
+	 */
+	public static FactoryCachePolicy getDefault() {
+		String maximumSize = System.getProperty(MAXIMUM_SIZE_PROPERTY);
+		String eviction = System.getProperty(EVICTION_PROPERTY);
+		String retention = System.getProperty(RETENTION_PROPERTY);
+		if (maximumSize == null && eviction == null && retention == null) {
+			return UNBOUNDED;
+		}
+		try {
+			return new FactoryCachePolicy(
+					maximumSize == null ? UNBOUNDED.maximumSize : Integer.parseInt(maximumSize.trim()),
+					eviction == null ? UNBOUNDED.eviction : Eviction.valueOf(eviction.trim()),
+					retention == null ? UNBOUNDED.retention : Retention.valueOf(retention.trim()));
+		} catch (IllegalArgumentException e) {
+			throw new MixinException("Invalid factory cache policy in system properties " + MAXIMUM_SIZE_PROPERTY
+					+ "=" + maximumSize + ", " + EVICTION_PROPERTY + "=" + eviction + ", "
+					+ RETENTION_PROPERTY + "=" + retention, e);
+		}
+	}
+
+	/**
+	 * @return the largest number of factories to cache, or 0 for no limit
+	 */
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public boolean isBounded() {
+		return maximumSize > 0;
+	}
+
+	public Eviction getEviction() {
+		return eviction;
+	}
+
+	public Retention getRetention() {
+		return retention;
+	}
+
+	@Override
+	public String toString() {
+		return (isBounded() ? "at most " + maximumSize + " factories, evicting " + eviction : "unbounded")
+				+ ", " + retention + " retention";
+	}
+
+}
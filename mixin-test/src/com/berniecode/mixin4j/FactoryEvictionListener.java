@@ -0,0 +1,22 @@
+package com.berniecode.mixin4j;
+
+/**
+ * <p>Notified when a {@link MixinSupport} removes a factory from its cache because the cache is
+ * full, according to its {@link FactoryCachePolicy}. Register one with
+ * {@link MixinSupport#addEvictionListener(FactoryEvictionListener)}.
+ *
+ * <p>Listeners are called on the thread that added the factory that made the cache full, so they
+ * should be quick and must be thread safe. Exceptions they throw are ignored.
+ *
+ * @author Bernard Sumption
+ */
+public interface FactoryEvictionListener {
+
+	/**
+	 * @param mixinBase the mixin base whose factory was removed. If it is used again, its factory
+	 *        will be generated again.
+	 * @param factory the factory that was removed, which still works for anyone holding it
+	 */
+	public void factoryEvicted(Class<?> mixinBase, Factory<?> factory);
+
+}
@@ -0,0 +1,44 @@
+package com.berniecode.mixin4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Generates mixed classes like {@link BytecodeGeneratingMixer}, but instead of creating a separate
+ * instance of each mixin implementation and delegating to it, copies the implementation's instance
+ * fields and methods into the mixed class. A mixed object is then a single object, without the extra
+ * object header, back-reference and delegating call per mixin.
+ *
+ * <p>The implementation's fields and methods are renamed so that they can't clash with members of
+ * the base class or other mixins, except for the methods of the mixin type, which implement the mixin
+ * type in the mixed class. {@link MixinAware#setMixinBase(Object)} is called with the mixed object, so
+ * a mixin-aware implementation's reference to its base is a reference to itself.
+ *
+ * <p>Not every implementation can be copied: it must extend Object, must not implement interfaces
+ * other than its mixin type and {@link MixinAware}, must not have inner classes or refer to its own type
+ * (for example in a parameter or cast), its no-argument constructor must not call another of its
+ * constructors, it must not use members that the mixed class can't access, such as non-public members of other classes in its package,
+ * and it must not use invokedynamic other than for string concatenation, for example to create lambdas. Such implementations,
+ * and {@link Stateless} or lazy ones, are delegated to as they are by {@link BytecodeGeneratingMixer}.
+ *
+ * @author Bernard Sumption
+ */
+public class FieldInliningMixer implements Mixer {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> Factory<? extends T> getFactory(Class<T> mixinBase, Mixin<T> mixin) {
+		List<Mixin<T>> mixins = new ArrayList<Mixin<T>>();
+		mixins.add(mixin);
+		return getFactory(mixinBase, mixins);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> Factory<? extends T> getFactory(Class<T> mixinBase, List<Mixin<T>> mixins) {
+		return new BytecodeGeneratingFactory<T>(mixinBase, mixins, true);
+	}
+
+}
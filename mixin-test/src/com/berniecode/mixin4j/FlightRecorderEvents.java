@@ -0,0 +1,239 @@
+package com.berniecode.mixin4j;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <p>Java Flight Recorder events, so that time spent generating mixed classes and creating mixed
+ * objects shows up in flight recordings. The events are:
+ *
+ * <ul>
+ * <li><code>com.berniecode.mixin4j.MixedClassGenerated</code>, for each mixed class produced by
+ * {@link ClassGeneratingMixer}. Its duration is the compilation time for a class that was compiled,
+ * or the load time for one that was precompiled or read from the class cache folder.
+ * <li><code>com.berniecode.mixin4j.MixedObjectCreated</code>, sampled from the creation of mixed
+ * objects by {@link MixinSupport} and factories. Its duration is the constructor call.
+ * <li><code>com.berniecode.mixin4j.DelegatedCall</code>, sampled from the methods that
+ * {@link DynamicProxyMixer} delegates to mixin implementations.
+ * </ul>
+ *
+ * <p>Sampled events are recorded once every {@value #SAMPLE_INTERVAL} times; the interval is
+ * recorded with each event so that counts can be scaled up. Threads count towards their samples
+ * in stripes, as {@link StripedCounter} does, so that they don't contend for one counter.
+ *
+ * <p>Each mixed object creation is recorded in one place: by the {@link Factory} method that
+ * creates it, or by {@link MixinSupport} for objects it creates with a {@link ConstructorInvoker}.
+ * Constructor invokers never record events themselves.
+ *
+ * <p>This library doesn't require a JVM with flight recorder, so the events are defined at runtime
+ * through reflection on the jdk.jfr dynamic event API. If it isn't available, they are never enabled.
+ * Whether any recording wants them is tracked by a recorder listener, so while nothing is recording,
+ * each call site costs one volatile read.
+ *
+ * @author Bernard Sumption
+ */
+class FlightRecorderEvents {
+
+	static final int SAMPLE_INTERVAL = 1024;
+
+	static final EventType MIXED_CLASS_GENERATED = EventType.create("MixedClassGenerated", "Mixed Class Generated",
+			"A mixed class was compiled, or loaded after being precompiled or cached",
+			Class.class, "mixinBase", "Mixin Base",
+			Integer.TYPE, "mixinCount", "Mixin Count",
+			Integer.TYPE, "sourceSize", "Source Size",
+			String.class, "origin", "Origin");
+
+	static final EventType MIXED_OBJECT_CREATED = EventType.create("MixedObjectCreated", "Mixed Object Created",
+			"A sample of the mixed objects created",
+			Class.class, "mixedClass", "Mixed Class",
+			Integer.TYPE, "sampleInterval", "Sample Interval");
+
+	static final EventType DELEGATED_CALL = EventType.create("DelegatedCall", "Delegated Call",
+			"A sample of the calls that DynamicProxyMixer delegated to mixin implementations",
+			Class.class, "mixinType", "Mixin Type",
+			String.class, "method", "Method",
+			Integer.TYPE, "sampleInterval", "Sample Interval");
+
+	private static final EventType[] ALL = {MIXED_CLASS_GENERATED, MIXED_OBJECT_CREATED, DELEGATED_CALL};
+
+	static {
+		try {
+			Class<?> listenerClass = Class.forName("jdk.jfr.FlightRecorderListener");
+			Object listener = Proxy.newProxyInstance(FlightRecorderEvents.class.getClassLoader(),
+					new Class<?>[] {listenerClass}, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().equals("equals")) {
+						return proxy == args[0];
+					}
+					if (method.getName().equals("hashCode")) {
+						return System.identityHashCode(proxy);
+					}
+					if (method.getName().equals("toString")) {
+						return "mixin4j flight recorder listener";
+					}
+					// a recording has started, stopped or changed its settings
+					updateEnabled();
+					return null;
+				}
+			});
+			Class.forName("jdk.jfr.FlightRecorder").getMethod("addListener", listenerClass).invoke(null, listener);
+			// recordings started before the listener was added, e.g. with -XX:StartFlightRecording
+			updateEnabled();
+		} catch (Throwable e) {
+			// no flight recorder, the events stay disabled
+		}
+	}
+
+	private static void updateEnabled() {
+		for (EventType eventType: ALL) {
+			eventType.updateEnabled();
+		}
+	}
+
+	/**
+	 * <p>One type of event, and the reflective handles needed to record it
+	 */
+	static final class EventType {
+
+		// whether any running recording has this event enabled
+		private volatile boolean enabled;
+
+		// ints per stripe of sampleCountdowns, so that each stripe is on a different 64 byte cache line
+		private static final int PADDING = 16;
+
+		// counts down to the next sample, for each stripe of threads
+		private final AtomicIntegerArray sampleCountdowns = new AtomicIntegerArray(StripedCounter.STRIPES * PADDING);
+
+		private final Object factory;
+		private final Method newEvent;
+		private final Method isEnabled;
+		private final Method begin;
+		private final Method set;
+		private final Method commit;
+
+		private EventType(Object factory) throws Exception {
+			this.factory = factory;
+			initSampleCountdowns();
+			Class<?> eventClass = Class.forName("jdk.jfr.Event");
+			newEvent = factory.getClass().getMethod("newEvent");
+			isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+			begin = eventClass.getMethod("begin");
+			set = eventClass.getMethod("set", Integer.TYPE, Object.class);
+			commit = eventClass.getMethod("commit");
+		}
+
+		private EventType() {
+			factory = null;
+			newEvent = isEnabled = begin = set = commit = null;
+			initSampleCountdowns();
+		}
+
+		private void initSampleCountdowns() {
+			for (int i=0; i<StripedCounter.STRIPES; i++) {
+				sampleCountdowns.set(i * PADDING, SAMPLE_INTERVAL);
+			}
+		}
+
+		/**
+		 * Define an event type, or return one that is never enabled if the flight recorder isn't available
+		 *
+		 * @param fields the type, name and label of each field in turn
+		 */
+		static EventType create(String name, String label, String description, Object... fields) {
+			try {
+				Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+				List<Object> annotations = new ArrayList<Object>();
+				annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), "com.berniecode.mixin4j." + name));
+				annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), label));
+				annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Description"), description));
+				annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"mixin4j"}));
+				Constructor<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(
+						Class.class, String.class, List.class);
+				List<Object> values = new ArrayList<Object>();
+				for (int i=0; i<fields.length; i+=3) {
+					values.add(valueDescriptor.newInstance(fields[i], fields[i + 1],
+							Arrays.asList(annotation.newInstance(Class.forName("jdk.jfr.Label"), fields[i + 2]))));
+				}
+				Object factory = Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class)
+						.invoke(null, annotations, values);
+				return new EventType(factory);
+			} catch (Throwable e) {
+				return new EventType();
+			}
+		}
+
+		private void updateEnabled() {
+			try {
+				enabled = factory != null
+						&& (Boolean) isEnabled.invoke(factory.getClass().getMethod("getEventType").invoke(factory));
+			} catch (Exception e) {
+				enabled = false;
+			}
+		}
+
+		/**
+		 * Start timing an event, returning null if it isn't enabled
+		 */
+		Object begin() {
+			if (!enabled) {
+				return null;
+			}
+			try {
+				Object event = newEvent.invoke(factory);
+				begin.invoke(event);
+				return event;
+			} catch (Exception e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Start timing an event if it is enabled and this is the call to be sampled, else return null
+		 */
+		Object beginSample() {
+			if (!enabled) {
+				return null;
+			}
+			int index = StripedCounter.getStripe() * PADDING;
+			// exactly one of the threads sharing a stripe reaches zero each interval. Any that count
+			// past it before the countdown is reset are counted towards the next interval.
+			if (sampleCountdowns.decrementAndGet(index) != 0) {
+				return null;
+			}
+			sampleCountdowns.addAndGet(index, SAMPLE_INTERVAL);
+			return begin();
+		}
+
+		/**
+		 * Record an event started by {@link #begin()} or {@link #beginSample()}. Callers that create
+		 * objects or make calls should check for a null event first, as the values array is created
+		 * and boxed even if there is nothing to record.
+		 *
+		 * @param event the event, or null to do nothing
+		 * @param values the value of each field, in the order they were defined
+		 */
+		void commit(Object event, Object... values) {
+			if (event == null) {
+				return;
+			}
+			try {
+				for (int i=0; i<values.length; i++) {
+					set.invoke(event, i, values[i]);
+				}
+				commit.invoke(event);
+			} catch (Exception e) {
+				// lose the event rather than fail the caller
+			}
+		}
+	}
+
+	private FlightRecorderEvents() {
+	}
+
+}
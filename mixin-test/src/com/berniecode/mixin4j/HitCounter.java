@@ -0,0 +1,52 @@
+package com.berniecode.mixin4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Counts the hits and misses of one of the caches kept by {@link MixinSupport}, to show how much
+ * work it is saving.
+ *
+ * @author Bernard Sumption
+ */
+public class HitCounter {
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	void hit() {
+		hits.incrementAndGet();
+	}
+
+	void miss() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of lookups that found a cached value
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that had to create the value
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the proportion of lookups that were hits, from 0 to 1, or 0 if there have been none
+	 */
+	public double getHitRate() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d hits, %d misses (%.1f%% hit rate)", getHits(), getMisses(), getHitRate() * 100);
+	}
+
+}
@@ -0,0 +1,440 @@
+package com.berniecode.mixin4j;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.sf.cglib.asm.ClassAdapter;
+import net.sf.cglib.asm.ClassReader;
+import net.sf.cglib.asm.ClassWriter;
+import net.sf.cglib.asm.FieldVisitor;
+import net.sf.cglib.asm.Label;
+import net.sf.cglib.asm.MethodAdapter;
+import net.sf.cglib.asm.MethodVisitor;
+import net.sf.cglib.asm.Opcodes;
+import net.sf.cglib.asm.Type;
+
+/**
+ * <p>Copies the instance fields and methods of a mixin implementation class into a generated mixed
+ * class, renaming them with a prefix and replacing references to the implementation class with
+ * references to the mixed class.
+ *
+ * <p>The no-argument constructor becomes a private method called by each constructor of the mixed
+ * class, see {@link #getInitMethodName(String)}. Static members stay in the implementation class.
+ *
+ * @author Bernard Sumption
+ */
+class ImplementationInliner implements Opcodes {
+
+	private static final String INIT_METHOD = "init";
+
+	private final Class<?> implementation;
+	private final Class<?> mixinType;
+	private final String implementationName;
+	private final StringConcatenationRewriter concatenation;
+
+	// name + descriptor of each mixin type method, which keep their names when copied
+	private final Set<String> typeMethods = new HashSet<String>();
+
+	// name + descriptor of the implementation's instance fields and methods, which are copied
+	private final Set<String> instanceMembers = new HashSet<String>();
+
+	private ImplementationInliner(Class<?> implementation, Class<?> mixinType, StringConcatenationRewriter concatenation) {
+		this.implementation = implementation;
+		this.mixinType = mixinType;
+		this.implementationName = Type.getInternalName(implementation);
+		this.concatenation = concatenation;
+		for (Method method: mixinType.getMethods()) {
+			typeMethods.add(method.getName() + Type.getMethodDescriptor(method));
+		}
+		for (Field field: implementation.getDeclaredFields()) {
+			if (!Modifier.isStatic(field.getModifiers())) {
+				instanceMembers.add(field.getName() + Type.getDescriptor(field.getType()));
+			}
+		}
+		for (Method method: implementation.getDeclaredMethods()) {
+			if (!Modifier.isStatic(method.getModifiers())) {
+				instanceMembers.add(method.getName() + Type.getMethodDescriptor(method));
+			}
+		}
+	}
+
+	/**
+	 * Return an inliner for a mixin implementation, or null if it can't be copied into a mixed class
+	 */
+	static ImplementationInliner create(Class<?> implementation, Class<?> mixinType) {
+		if (implementation.getSuperclass() != Object.class) {
+			return null;
+		}
+		byte[] bytecode = MixedClassFactory.readClassFile(implementation);
+		if (bytecode == null) {
+			return null;
+		}
+		StringConcatenationRewriter concatenation = StringConcatenationRewriter.rewrite(bytecode);
+		if (concatenation == null) {
+			return null;
+		}
+		ImplementationInliner inliner = new ImplementationInliner(implementation, mixinType, concatenation);
+		try {
+			// a trial run, which throws CannotInline if there's anything that can't be copied
+			inliner.inline(new ClassWriter(0), "com/berniecode/mixin4j/InliningCheck", "check$");
+		} catch (CannotInline e) {
+			return null;
+		}
+		return inliner;
+	}
+
+	/**
+	 * The name of the method that does the work of the implementation's constructor
+	 */
+	static String getInitMethodName(String prefix) {
+		return prefix + INIT_METHOD;
+	}
+
+	/**
+	 * The name that an implementation method that isn't a mixin type method has in the mixed class,
+	 * e.g. for calling its {@link MixinAware#setMixinBase(Object)}
+	 */
+	static String getRenamedMethodName(String prefix, String methodName) {
+		return prefix + methodName;
+	}
+
+	/**
+	 * Copy the implementation's fields and methods into a mixed class
+	 *
+	 * @param mixedClassName the internal name of the mixed class
+	 * @param prefix prepended to the names of copied members
+	 */
+	void inline(ClassWriter cw, String mixedClassName, String prefix) {
+		new ClassReader(concatenation.getBytecode()).accept(new InliningClassAdapter(cw, mixedClassName, prefix), ClassReader.SKIP_FRAMES);
+	}
+
+	private String rename(String prefix, String name, String descriptor) {
+		if (typeMethods.contains(name + descriptor)) {
+			return name;
+		}
+		return prefix + name;
+	}
+
+	/**
+	 * Whether code in the mixed class can use a member of another class. The mixed class is in a
+	 * different class loader to the implementation, so it can only use public members of public
+	 * classes in the implementation's package.
+	 */
+	private boolean isAccessible(String owner, String name, String descriptor) {
+		Class<?> ownerClass = getSamePackageClass(owner);
+		if (ownerClass == null) {
+			return true;
+		}
+		if (!Modifier.isPublic(ownerClass.getModifiers())) {
+			return false;
+		}
+		if (name == null) {
+			return true;
+		}
+		List<Member> members = new ArrayList<Member>();
+		for (Field field: ownerClass.getFields()) {
+			members.add(field);
+		}
+		for (Method method: ownerClass.getMethods()) {
+			members.add(method);
+		}
+		if (name.equals("<init>")) {
+			for (java.lang.reflect.Constructor<?> constructor: ownerClass.getConstructors()) {
+				if (Type.getConstructorDescriptor(constructor).equals(descriptor)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		for (Member member: members) {
+			String memberDescriptor = member instanceof Field
+					? Type.getDescriptor(((Field) member).getType())
+					: Type.getMethodDescriptor((Method) member);
+			if (member.getName().equals(name) && memberDescriptor.equals(descriptor)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the class with an internal name if it is in the implementation's package, or null if
+	 * it is in another package or is the implementation itself
+	 */
+	private Class<?> getSamePackageClass(String internalName) {
+		if (internalName.equals(implementationName)
+				|| internalName.lastIndexOf('/') != implementationName.lastIndexOf('/')
+				|| !internalName.startsWith(implementationName.substring(0, implementationName.lastIndexOf('/') + 1))) {
+			return null;
+		}
+		try {
+			return Class.forName(internalName.replace('/', '.'), false, implementation.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			throw new CannotInline();
+		}
+	}
+
+	private void checkDescriptor(String descriptor) {
+		if (descriptor.indexOf("L" + implementationName + ";") != -1) {
+			// the implementation refers to its own type, which won't be the type of the mixed object
+			throw new CannotInline();
+		}
+		for (Type type: descriptor.startsWith("(")
+				? concat(Type.getArgumentTypes(descriptor), Type.getReturnType(descriptor))
+				: new Type[] {Type.getType(descriptor)}) {
+			while (type.getSort() == Type.ARRAY) {
+				type = type.getElementType();
+			}
+			if (type.getSort() == Type.OBJECT && !isAccessible(type.getInternalName(), null, null)) {
+				throw new CannotInline();
+			}
+		}
+	}
+
+	private static Type[] concat(Type[] types, Type type) {
+		Type[] result = new Type[types.length + 1];
+		System.arraycopy(types, 0, result, 0, types.length);
+		result[types.length] = type;
+		return result;
+	}
+
+	/**
+	 * Thrown during inlining if the implementation can't be copied
+	 */
+	private static class CannotInline extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Passes the implementation's instance fields and methods to the mixed class's writer, renaming
+	 * them, and drops everything else.
+	 */
+	private class InliningClassAdapter extends ClassAdapter {
+
+		private final String mixedClassName;
+		private final String prefix;
+
+		InliningClassAdapter(ClassWriter cw, String mixedClassName, String prefix) {
+			super(cw);
+			this.mixedClassName = mixedClassName;
+			this.prefix = prefix;
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+			for (Class<?> iface: implementation.getInterfaces()) {
+				if (iface != MixinAware.class && !iface.isAssignableFrom(mixinType)) {
+					// the mixed class doesn't implement the implementation's other interfaces, so
+					// passing this as one of them would fail
+					throw new CannotInline();
+				}
+			}
+		}
+
+		@Override
+		public void visitSource(String source, String debug) {
+		}
+
+		@Override
+		public void visitOuterClass(String owner, String name, String desc) {
+		}
+
+		@Override
+		public net.sf.cglib.asm.AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+			return null;
+		}
+
+		@Override
+		public void visitAttribute(net.sf.cglib.asm.Attribute attr) {
+		}
+
+		@Override
+		public void visitInnerClass(String name, String outerName, String innerName, int access) {
+			if (!name.equals(implementationName)
+					&& (implementationName.equals(outerName) || name.startsWith(implementationName + "$"))) {
+				// inner and anonymous classes would refer to the implementation rather than the mixed class
+				throw new CannotInline();
+			}
+		}
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+			if ((access & ACC_STATIC) != 0) {
+				return null;
+			}
+			checkDescriptor(desc);
+			return super.visitField(access, prefix + name, desc, signature, value);
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+			if ((access & ACC_STATIC) != 0) {
+				return null;
+			}
+			if ((access & ACC_NATIVE) != 0) {
+				throw new CannotInline();
+			}
+			checkDescriptor(desc);
+			boolean constructor = name.equals("<init>");
+			if (constructor) {
+				if (!desc.equals("()V")) {
+					return null;
+				}
+				access = ACC_PRIVATE;
+				name = getInitMethodName(prefix);
+			} else {
+				name = rename(prefix, name, desc);
+			}
+			return new InliningMethodAdapter(super.visitMethod(access, name, desc, signature, exceptions),
+					mixedClassName, prefix, constructor);
+		}
+
+		@Override
+		public void visitEnd() {
+		}
+	}
+
+	/**
+	 * Replaces references to the implementation's instance members with references to the copies in
+	 * the mixed class, and removes the call to Object's constructor from the implementation's constructor.
+	 */
+	private class InliningMethodAdapter extends MethodAdapter {
+
+		private final String mixedClassName;
+		private final String prefix;
+
+		// in a constructor, the number of objects created but not yet initialised, so that
+		// the super constructor call can be told apart from the constructor calls of new objects
+		private int uninitialisedObjects = 0;
+		private boolean superConstructorCalled;
+
+		InliningMethodAdapter(MethodVisitor mv, String mixedClassName, String prefix, boolean constructor) {
+			super(mv);
+			this.mixedClassName = mixedClassName;
+			this.prefix = prefix;
+			this.superConstructorCalled = !constructor;
+		}
+
+		@Override
+		public void visitTypeInsn(int opcode, String type) {
+			checkDescriptor(type.startsWith("[") ? type : "L" + type + ";");
+			if (opcode == NEW) {
+				uninitialisedObjects++;
+			}
+			super.visitTypeInsn(opcode, type);
+		}
+
+		@Override
+		public void visitMultiANewArrayInsn(String desc, int dims) {
+			checkDescriptor(desc);
+			super.visitMultiANewArrayInsn(desc, dims);
+		}
+
+		@Override
+		public void visitLdcInsn(Object cst) {
+			if (cst instanceof Type) {
+				checkDescriptor(((Type) cst).getDescriptor());
+			}
+			super.visitLdcInsn(cst);
+		}
+
+		@Override
+		public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+			checkDescriptor(desc);
+			if (owner.equals(implementationName)) {
+				if (instanceMembers.contains(name + desc)) {
+					super.visitFieldInsn(opcode, mixedClassName, prefix + name, desc);
+					return;
+				}
+				if (!isPublicStatic(name, desc)) {
+					throw new CannotInline();
+				}
+			} else if (!isAccessible(owner, name, desc)) {
+				throw new CannotInline();
+			}
+			super.visitFieldInsn(opcode, owner, name, desc);
+		}
+
+		@Override
+		public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+			if (StringConcatenationRewriter.isPlaceholder(owner)) {
+				// only converts the arguments to strings, so they can be of any type
+				if (!concatenation.concatenate(mv, owner, desc)) {
+					throw new CannotInline();
+				}
+				return;
+			}
+			checkDescriptor(desc);
+			if (name.equals("<init>") && opcode == INVOKESPECIAL) {
+				if (uninitialisedObjects > 0) {
+					uninitialisedObjects--;
+				} else if (!superConstructorCalled) {
+					if (!owner.equals("java/lang/Object")) {
+						// this(...), calling a constructor that isn't copied
+						throw new CannotInline();
+					}
+					// Object's constructor, called on this; just discard this from the stack
+					superConstructorCalled = true;
+					super.visitInsn(POP);
+					return;
+				}
+			}
+			if (owner.equals(implementationName)) {
+				if (instanceMembers.contains(name + desc)) {
+					super.visitMethodInsn(opcode, mixedClassName, rename(prefix, name, desc), desc);
+					return;
+				}
+				if (opcode == INVOKESTATIC) {
+					if (!isPublicStatic(name, desc)) {
+						throw new CannotInline();
+					}
+				} else {
+					// a method inherited from Object
+					owner = mixedClassName;
+				}
+			} else if (!isAccessible(owner, name, desc)) {
+				throw new CannotInline();
+			}
+			super.visitMethodInsn(opcode, owner, name, desc);
+		}
+
+		@Override
+		public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+			if (type != null) {
+				checkDescriptor("L" + type + ";");
+			}
+			super.visitTryCatchBlock(start, end, handler, type);
+		}
+
+		@Override
+		public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) {
+			if (desc.equals("L" + implementationName + ";")) {
+				// this
+				desc = "L" + mixedClassName + ";";
+				signature = null;
+			}
+			super.visitLocalVariable(name, desc, signature, start, end, index);
+		}
+	}
+
+	private boolean isPublicStatic(String name, String descriptor) {
+		for (Field field: implementation.getDeclaredFields()) {
+			if (field.getName().equals(name) && Type.getDescriptor(field.getType()).equals(descriptor)) {
+				return Modifier.isPublic(field.getModifiers()) && Modifier.isStatic(field.getModifiers());
+			}
+		}
+		for (Method method: implementation.getDeclaredMethods()) {
+			if (method.getName().equals(name) && Type.getMethodDescriptor(method).equals(descriptor)) {
+				return Modifier.isPublic(method.getModifiers()) && Modifier.isStatic(method.getModifiers());
+			}
+		}
+		return false;
+	}
+
+}
@@ -14,6 +14,11 @@ package com.berniecode.mixin4j;
  * <p>Writing your own ImplementationSource is a very advanced degree of customisation:
  * the vast majority of mixin authors will find the provided sources adequate.
  * 
+ * <p>{@link MixinSupport} creates one instance of each source class, which must be thread safe,
+ * and remembers the implementation returned for each mixin type and declaring class, so the result
+ * should depend only on the arguments. Every mixin base that inherits the mixin type from the same
+ * declaring class gets the same implementation.
+ * 
  * @author Bernard Sumption
  */
 public interface ImplementationSource {
@@ -29,6 +34,9 @@ public interface ImplementationSource {
 	 * 
 	 * <pre>getImplementation(SomeMixin.class, Foo.class);</pre>
 	 * 
+	 * <p>The declaring class is the class whose <code>implements</code> clause names the mixin type,
+	 * which is a superclass of the mixin base if the mixin base inherits the mixin type.
+	 * 
 	 * @return a class that implements the declared interface
 	 */
 	public Class<?> getImplementation(Class<?> declaredInteface, Class<?> declaringClass);
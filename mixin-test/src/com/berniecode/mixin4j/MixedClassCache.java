@@ -0,0 +1,158 @@
+package com.berniecode.mixin4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>A folder of the class files compiled by {@link ClassGeneratingMixer}, so that later runs can
+ * load them instead of compiling the same source again. It is enabled by setting the system property
+ * {@value #CACHE_FOLDER_PROPERTY} to the path of the folder.
+ *
+ * <p>Each mixed class is stored in a jar file named after a hash of its source code and of the class
+ * files of the mixin base, mixin types and implementations, so a change to any of them results in a
+ * new entry rather than a stale class. Files are written under a temporary name and then renamed, so
+ * several JVMs can share the folder without seeing each other's partly written files.
+ *
+ * @author Bernard Sumption
+ */
+class MixedClassCache {
+
+	static final String CACHE_FOLDER_PROPERTY = "com.berniecode.mixin4j.classCacheFolder";
+
+	// change this if the format of cache files or generated code changes in a way the hash doesn't capture
+	private static final String FORMAT_VERSION = "mixin4j-class-cache-1";
+
+	private final File folder;
+
+	MixedClassCache(File folder) {
+		this.folder = folder;
+	}
+
+	/**
+	 * Return the cache configured by the system property, or null if caching is not enabled
+	 */
+	static MixedClassCache getConfiguredCache() {
+		String path = System.getProperty(CACHE_FOLDER_PROPERTY);
+		return path == null ? null : new MixedClassCache(new File(path));
+	}
+
+	/**
+	 * Return the key that the class files compiled from some source code are stored under, or null
+	 * if the class files of the classes that it depends on can't be found
+	 *
+	 * @param dependencies the classes that the generated classes are derived from
+	 */
+	String getKey(String sourceCode, List<Class<?>> dependencies) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+			digest.update(FORMAT_VERSION.getBytes("UTF-8"));
+			digest.update(sourceCode.getBytes("UTF-8"));
+		} catch (NoSuchAlgorithmException e) {
+			throw new MixinException("SHA-1 is not supported by this JVM", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new MixinException("UTF-8 is not supported by this JVM", e);
+		}
+		for (Class<?> dependency: dependencies) {
+			byte[] classFile = MixedClassFactory.readClassFile(dependency);
+			if (classFile == null) {
+				return null;
+			}
+			digest.update(classFile);
+		}
+		StringBuilder key = new StringBuilder();
+		for (byte b: digest.digest()) {
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Return the class files stored under a key, mapped from class name to bytecode, or null if there
+	 * are none or they can't be read
+	 */
+	Map<String, byte[]> read(String mixedClassName, String key) {
+		File file = getFile(mixedClassName, key);
+		if (!file.isFile()) {
+			return null;
+		}
+		Map<String, byte[]> classFiles = new LinkedHashMap<String, byte[]>();
+		try {
+			ZipInputStream in = new ZipInputStream(new FileInputStream(file));
+			try {
+				ZipEntry entry;
+				byte[] buffer = new byte[4096];
+				while ((entry = in.getNextEntry()) != null) {
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						out.write(buffer, 0, read);
+					}
+					String name = entry.getName();
+					classFiles.put(name.substring(0, name.length() - ".class".length()).replace('/', '.'), out.toByteArray());
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// a damaged file, which will be replaced by write()
+			return null;
+		}
+		return classFiles.isEmpty() ? null : classFiles;
+	}
+
+	/**
+	 * Store class files under a key
+	 *
+	 * @param classFiles bytecode mapped from class name
+	 */
+	void write(String mixedClassName, String key, Map<String, byte[]> classFiles) {
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new MixinException("Could not create folder " + folder + ", fix the issue or remove the "
+					+ CACHE_FOLDER_PROPERTY + " property.");
+		}
+		File file = getFile(mixedClassName, key);
+		File temporaryFile = null;
+		try {
+			temporaryFile = File.createTempFile(file.getName(), ".tmp", folder);
+			ZipOutputStream out = new ZipOutputStream(new FileOutputStream(temporaryFile));
+			try {
+				for (Map.Entry<String, byte[]> classFile: classFiles.entrySet()) {
+					out.putNextEntry(new ZipEntry(classFile.getKey().replace('.', '/') + ".class"));
+					out.write(classFile.getValue());
+					out.closeEntry();
+				}
+			} finally {
+				out.close();
+			}
+			// renameTo fails if another JVM has just written the same file, which is fine
+			if (!temporaryFile.renameTo(file) && !file.isFile()) {
+				throw new IOException("could not rename " + temporaryFile + " to " + file);
+			}
+		} catch (IOException e) {
+			throw new MixinException("Could not write file " + file + ", fix the issue or remove the "
+					+ CACHE_FOLDER_PROPERTY + " property.", e);
+		} finally {
+			if (temporaryFile != null && temporaryFile.exists()) {
+				temporaryFile.delete();
+			}
+		}
+	}
+
+	private File getFile(String mixedClassName, String key) {
+		return new File(folder, mixedClassName + "-" + key + ".jar");
+	}
+
+}
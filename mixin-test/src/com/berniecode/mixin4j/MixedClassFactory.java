@@ -0,0 +1,267 @@
+package com.berniecode.mixin4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>A {@link Factory} for a generated mixed class that has a {@link ConstructorInvoker} class for each
+ * of its constructors, named by {@link MixedClassSourceGenerator#getInvokerClassName(int)} and numbered
+ * in the order returned by {@link #getMixableConstructors(Class)}.
+ * 
+ * @author Bernard Sumption
+ */
+abstract class MixedClassFactory<T> extends AbstractFactory<T> {
+
+	private final Class<? extends T> mixedClass;
+	
+	// argument types of the constructors of mixedClass, and invokers for those constructors at the same index
+	private final Class<?>[][] constructorArgTypes;
+	private final ConstructorInvoker<? extends T>[] constructorInvokers;
+	
+	private final ConstructorInvoker<? extends T> noArgConstructorInvoker;
+	
+	// generated implementations of constructor interfaces, mapped from the interface
+	private final ConcurrentMap<Class<?>, Object> typedConstructors = new ConcurrentHashMap<Class<?>, Object>();
+
+	protected MixedClassFactory(Class<? extends T> mixedClass) {
+		this.mixedClass = mixedClass;
+		List<Constructor<?>> constructors = getMixableConstructors(mixedClass.getSuperclass());
+		constructorArgTypes = new Class<?>[constructors.size()][];
+		// safe because the array only holds the invokers generated for mixedClass
+		@SuppressWarnings("unchecked")
+		ConstructorInvoker<? extends T>[] invokers = (ConstructorInvoker<? extends T>[]) new ConstructorInvoker<?>[constructors.size()];
+		constructorInvokers = invokers;
+		ConstructorInvoker<? extends T> noArgInvoker = null;
+		for (int i=0; i<constructors.size(); i++) {
+			constructorArgTypes[i] = constructors.get(i).getParameterTypes();
+			constructorInvokers[i] = loadConstructorInvoker(i);
+			if (constructorArgTypes[i].length == 0) {
+				noArgInvoker = constructorInvokers[i];
+			}
+		}
+		noArgConstructorInvoker = noArgInvoker;
+	}
+	
+	/**
+	 * Return the constructors of a mixin base class that the mixed class should have, in the
+	 * order that their invokers are numbered. This is the same order that {@link MixinBaseProcessor}
+	 * uses for precompiled classes.
+	 */
+	static List<Constructor<?>> getMixableConstructors(Class<?> mixinBase) {
+		List<Constructor<?>> constructors = new ArrayList<Constructor<?>>();
+		for (Constructor<?> constructor: mixinBase.getDeclaredConstructors()) {
+			if (!Modifier.isPrivate(constructor.getModifiers())) {
+				constructors.add(constructor);
+			}
+		}
+		Collections.sort(constructors, new Comparator<Constructor<?>>() {
+			public int compare(Constructor<?> c1, Constructor<?> c2) {
+				return MixedClassSourceGenerator.PARAMETER_LIST_ORDER.compare(
+						getSourceNames(c1.getParameterTypes()), getSourceNames(c2.getParameterTypes()));
+			}
+		});
+		return constructors;
+	}
+
+	/**
+	 * Load the ConstructorInvoker generated for the constructor at a given index
+	 */
+	@SuppressWarnings("unchecked")
+	private ConstructorInvoker<? extends T> loadConstructorInvoker(int index) {
+		String invokerClassName = mixedClass.getName() + "$" + MixedClassSourceGenerator.getInvokerClassName(index);
+		try {
+			// safe because the generated invoker always creates instances of mixedClass
+			return (ConstructorInvoker<? extends T>) mixedClass.getClassLoader().loadClass(invokerClassName)
+					.getDeclaredConstructor().newInstance();
+		} catch (Exception e) {
+			throw new MixinException("Could not load generated class " + invokerClassName, e);
+		}
+	}
+
+	/**
+	 * Return the contents of the class file that a class was loaded from, or null if it can't be found
+	 */
+	static byte[] readClassFile(Class<?> klass) {
+		String resource = klass.getName().replace('.', '/') + ".class";
+		ClassLoader loader = klass.getClassLoader();
+		InputStream in = loader == null ? ClassLoader.getSystemResourceAsStream(resource) : loader.getResourceAsStream(resource);
+		if (in == null) {
+			return null;
+		}
+		try {
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+				return out.toByteArray();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The name used for a type in generated source code
+	 */
+	static String getSourceName(Class<?> type) {
+		return type.getCanonicalName();
+	}
+
+	static String[] getSourceNames(Class<?>[] types) {
+		String[] names = new String[types.length];
+		for (int i=0; i<types.length; i++) {
+			names[i] = getSourceName(types[i]);
+		}
+		return names;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public T newInstance() {
+		if (noArgConstructorInvoker == null) {
+			throw new MixinException("Class " + mixedClass.getSuperclass().getCanonicalName()
+					+ " has no no-arg constructor");
+		}
+		return invoke(noArgConstructorInvoker, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public T newInstance(Class<?>[] constructorArgTypes,
+			Object[] constructorArgs) {
+		if (constructorArgTypes.length == 0) {
+			return newInstance();
+		}
+		return invoke(getConstructor(constructorArgTypes), constructorArgs);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<T> newInstances(int count) {
+		if (noArgConstructorInvoker == null) {
+			throw new MixinException("Class " + mixedClass.getSuperclass().getCanonicalName()
+					+ " has no no-arg constructor");
+		}
+		checkBatch(count, new Class<?>[0], null);
+		return invokeAll(noArgConstructorInvoker, count, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<T> newInstances(int count, Class<?>[] constructorArgTypes, ConstructorArguments constructorArgs) {
+		checkBatch(count, constructorArgTypes, constructorArgs);
+		return invokeAll(getConstructor(constructorArgTypes), count, constructorArgs);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public ConstructorInvoker<? extends T> getConstructor(Class<?>[] constructorArgTypes) {
+		// a linear scan is cheaper than hashing the array, since classes have few constructors
+		for (int i=0; i<this.constructorArgTypes.length; i++) {
+			if (Arrays.equals(this.constructorArgTypes[i], constructorArgTypes)) {
+				return constructorInvokers[i];
+			}
+		}
+		throw new MixinException("Class " + mixedClass.getSuperclass().getCanonicalName()
+				+ " has no constructor with arguments " + Arrays.toString(constructorArgTypes));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public <C> C getTypedConstructor(Class<C> constructorInterface) {
+		Object constructor = typedConstructors.get(constructorInterface);
+		if (constructor == null) {
+			constructor = TypedConstructors.generate(constructorInterface, mixedClass);
+			Object existing = typedConstructors.putIfAbsent(constructorInterface, constructor);
+			if (existing != null) {
+				constructor = existing;
+			}
+		}
+		return constructorInterface.cast(constructor);
+	}
+	
+	private T invoke(ConstructorInvoker<? extends T> invoker, Object[] constructorArgs) {
+		Object event = FlightRecorderEvents.MIXED_OBJECT_CREATED.beginSample();
+		T instance;
+		try {
+			instance = invoker.newInstance(constructorArgs);
+		} catch (MixinException e) {
+			// thrown by this library while creating the mixins, so it already says what went wrong
+			throw e;
+		} catch (RuntimeException e) {
+			throw new MixinException("The constructor invocation threw an exception", e);
+		}
+		if (event != null) {
+			FlightRecorderEvents.MIXED_OBJECT_CREATED.commit(event, mixedClass, FlightRecorderEvents.SAMPLE_INTERVAL);
+		}
+		return instance;
+	}
+	
+	/**
+	 * Invoke a constructor a number of times, after the batch has been checked
+	 * 
+	 * @param constructorArgs supplies the arguments, or null if the constructor has none
+	 */
+	private List<T> invokeAll(ConstructorInvoker<? extends T> invoker, int count, ConstructorArguments constructorArgs) {
+		List<T> instances = new ArrayList<T>(count);
+		// one event for the whole batch, rather than sampling its objects
+		Object event = FlightRecorderEvents.MIXED_OBJECT_CREATED.begin();
+		for (int i=0; i<count; i++) {
+			Object[] args = getArguments(constructorArgs, i);
+			try {
+				instances.add(invoker.newInstance(args));
+			} catch (MixinException e) {
+				throw e;
+			} catch (RuntimeException e) {
+				throw new MixinException("The constructor invocation threw an exception", e);
+			}
+		}
+		if (event != null) {
+			FlightRecorderEvents.MIXED_OBJECT_CREATED.commit(event, mixedClass, count);
+		}
+		return instances;
+	}
+
+	/**
+	 * Defines generated classes in a class loader
+	 */
+	interface ClassDefiner {
+		Class<?> define(String name, byte[] bytecode);
+	}
+
+	/**
+	 * Defines the classes generated for one mixin base
+	 */
+	static class MixedClassLoader extends ClassLoader implements ClassDefiner {
+
+		MixedClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		public Class<?> define(String name, byte[] bytecode) {
+			return defineClass(name, bytecode, 0, bytecode.length);
+		}
+	}
+
+}
@@ -0,0 +1,310 @@
+package com.berniecode.mixin4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * <p>Generates the source code of a mixed class: a subclass of the mixin base that delegates the
+ * methods of each mixin type to an instance of its implementation.
+ * 
+ * <p>This is used at runtime by {@link ClassGeneratingMixer} and at compile time by
+ * {@link MixinBaseProcessor}, so it works with type names rather than Class objects.
+ */
+class MixedClassSourceGenerator {
+
+	/**
+	 * Orders constructors by their parameter type names. The generated ConstructorInvoker classes
+	 * are numbered in this order, so that the numbering is the same however the constructors were found.
+	 */
+	static final Comparator<String[]> PARAMETER_LIST_ORDER = new Comparator<String[]>() {
+		public int compare(String[] params1, String[] params2) {
+			if (params1.length != params2.length) {
+				return params1.length - params2.length;
+			}
+			for (int i=0; i<params1.length; i++) {
+				int result = params1[i].compareTo(params2[i]);
+				if (result != 0) {
+					return result;
+				}
+			}
+			return 0;
+		}
+	};
+	
+	private static final Map<String, String> PRIMITIVE_WRAPPERS = new HashMap<String, String>();
+	static {
+		for (Class<?> primitive: new Class<?>[] {Boolean.TYPE, Byte.TYPE, Character.TYPE, Short.TYPE,
+				Integer.TYPE, Long.TYPE, Float.TYPE, Double.TYPE}) {
+			PRIMITIVE_WRAPPERS.put(primitive.getName(), MixinUtils.getWrapperType(primitive).getName());
+		}
+	}
+
+	private final String packageName;
+	private final String mixedClassName;
+	private final String baseClassName;
+	
+	private final List<String> mixinTypes = new ArrayList<String>();
+	private final List<String> mixinImpls = new ArrayList<String>();
+	private final List<Boolean> lazyMixins = new ArrayList<Boolean>();
+	private final List<Boolean> statelessMixins = new ArrayList<Boolean>();
+	
+	// the class body, written at one level of indentation inside the class declaration
+	private final JavaSourceBuilder body = new JavaSourceBuilder(1);
+	
+	private String currentMixinVarName;
+	// an expression that evaluates to the current mixin's implementation
+	private String currentMixinAccessor;
+	private int constructorCount = 0;
+	
+	/**
+	 * @param packageName the package of the mixin base class
+	 * @param mixedClassName the simple name of the class to generate, see {@link #getMixedClassName(String)}
+	 * @param baseClassName the fully qualified name of the mixin base class
+	 */
+	public MixedClassSourceGenerator(String packageName, String mixedClassName, String baseClassName) {
+		this.packageName = packageName;
+		this.mixedClassName = mixedClassName;
+		this.baseClassName = baseClassName;
+		body.line();
+	}
+	
+	/**
+	 * Return the simple name of the mixed class generated for a mixin base class
+	 */
+	public static String getMixedClassName(String baseSimpleName) {
+		return baseSimpleName + "WithMixins";
+	}
+	
+	/**
+	 * Return the simple name of the generated ConstructorInvoker class for the constructor at an index
+	 */
+	public static String getInvokerClassName(int index) {
+		return "Constructor" + index;
+	}
+	
+	/**
+	 * Add a mixin. Methods passed to {@link #addDelegatedMethod(String, String, String[], boolean)} will be
+	 * delegated to this mixin's implementation until the next mixin is added.
+	 * 
+	 * @param lazy whether to create the implementation on first use, see {@link MixinType#lazy()}
+	 */
+	public void addMixin(String mixinType, String mixinImpl, boolean mixinAware, boolean lazy) {
+		startMixin(mixinType, mixinImpl, lazy, false);
+		if (lazy) {
+			addLazyMixinAccessor(mixinImpl, mixinAware);
+			return;
+		}
+		currentMixinAccessor = currentMixinVarName;
+		body.line("private %s %s = new %1$s();", mixinImpl, currentMixinVarName);
+		if (mixinAware) {
+			body.line("{");
+			body.line("%s.setMixinBase(this); // MixinAware fulfilment", currentMixinVarName);
+			body.line("}");
+		}
+	}
+	
+	/**
+	 * Add a {@link Stateless} mixin, whose implementation is held in a static field and shared
+	 * by all instances of the mixed class.
+	 */
+	public void addStatelessMixin(String mixinType, String mixinImpl) {
+		startMixin(mixinType, mixinImpl, false, true);
+		currentMixinAccessor = currentMixinVarName;
+		body.line("private static final %s %s = new %1$s();", mixinImpl, currentMixinVarName);
+	}
+	
+	private void startMixin(String mixinType, String mixinImpl, boolean lazy, boolean stateless) {
+		mixinTypes.add(mixinType);
+		mixinImpls.add(mixinImpl);
+		lazyMixins.add(lazy);
+		statelessMixins.add(stateless);
+		String varName = mixinType.substring(mixinType.lastIndexOf('.') + 1) + mixinTypes.size();
+		currentMixinVarName = Character.toLowerCase(varName.charAt(0)) + varName.substring(1);
+		body.line("// delegation of methods in mixin type %s", mixinType);
+		body.line("// to implementation %s", mixinImpl);
+	}
+	
+	/**
+	 * Write a method that creates the implementation the first time that it is called. Racing
+	 * threads may each create one, but only the first to be stored is ever used.
+	 */
+	private void addLazyMixinAccessor(String mixinImpl, boolean mixinAware) {
+		String updaterName = currentMixinVarName + "Updater";
+		currentMixinAccessor = currentMixinVarName + "()";
+		body.line("private volatile %s %s;", mixinImpl, currentMixinVarName);
+		body.line("private static final %s %s = %1$s.newUpdater(%s.class, %s.class, \"%s\");",
+				AtomicReferenceFieldUpdater.class.getName(), updaterName, mixedClassName, mixinImpl, currentMixinVarName);
+		body.line("private %s %s {", mixinImpl, currentMixinAccessor);
+		body.line("%s impl = %s;", mixinImpl, currentMixinVarName);
+		body.line("if (impl == null) {");
+		body.line("impl = new %s();", mixinImpl);
+		if (mixinAware) {
+			body.line("impl.setMixinBase(this); // MixinAware fulfilment");
+		}
+		body.line("if (!%s.compareAndSet(this, null, impl)) {", updaterName);
+		body.line("impl = %s;", currentMixinVarName);
+		body.line("}");
+		body.line("}");
+		body.line("return impl;");
+		body.line("}");
+	}
+	
+	/**
+	 * Add a method that delegates to the implementation of the most recently added mixin
+	 * 
+	 * @param passMixedObject whether to pass the mixed object as an extra first argument, which
+	 *        {@link Stateless} implementations use instead of {@link MixinAware}
+	 */
+	public void addDelegatedMethod(String returnType, String methodName, String[] parameterTypes, boolean passMixedObject) {
+		body.line("public %s %s(%s) {", returnType, methodName , getArgs(parameterTypes, true));
+		String rtn = returnType.equals("void") ? "" : "return ";
+		String args = getArgs(parameterTypes, false);
+		if (passMixedObject) {
+			args = args.length() == 0 ? "this" : "this, " + args;
+		}
+		body.line("%s%s.%s(%s);", rtn, currentMixinAccessor, methodName, args);
+		body.line("}");
+	}
+	
+	/**
+	 * Add a constructor that passes its arguments to the base class constructor, and a
+	 * ConstructorInvoker that calls it directly. Constructors must be added in {@link #PARAMETER_LIST_ORDER}.
+	 */
+	public void addConstructor(String[] parameterTypes) {
+		body.line("public %s(%s) {", mixedClassName, getArgs(parameterTypes, true));
+		body.line("super(%s);", getArgs(parameterTypes, false));
+		body.line("}");
+		body.line("public static class %s implements %s {",
+				getInvokerClassName(constructorCount++), ConstructorInvoker.class.getName());
+		body.line("public Object newInstance(Object[] args) {");
+		body.line("return new %s(%s);", mixedClassName, getInvokerArgs(parameterTypes));
+		body.line("}");
+		body.line("}");
+	}
+	
+	/**
+	 * Return the source code of the mixed class as a compilation unit
+	 * 
+	 * @param includeAnnotations whether to annotate the class with {@link PrecompiledMixins}, which
+	 *        the version of Janino in use can't compile
+	 */
+	public String getSource(boolean includeAnnotations) {
+		JavaSourceBuilder jsb = new JavaSourceBuilder();
+		jsb.line("package %s;", packageName);
+		jsb.line();
+		if (includeAnnotations) {
+			jsb.line("@%s(", PrecompiledMixins.class.getName());
+			jsb.line("        mixinTypes = %s,", getClassArray(mixinTypes));
+			jsb.line("        mixinImplementations = %s,", getClassArray(mixinImpls));
+			jsb.line("        lazyMixins = %s,", getArray(lazyMixins));
+			jsb.line("        statelessMixins = %s)", getArray(statelessMixins));
+			// the generated code uses raw types, as the version of Janino in use can't compile generics
+			jsb.line("@SuppressWarnings({\"rawtypes\", \"unchecked\"})");
+		}
+		jsb.line("public class %s extends %s {", mixedClassName, baseClassName);
+		return jsb.toString() + body.toString() + "}\n";
+	}
+	
+	private String getArray(List<?> values) {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i=0; i<values.size(); i++) {
+			sb.append(values.get(i));
+			if (i < values.size() - 1) {
+				sb.append(", ");
+			}
+		}
+		return sb.append("}").toString();
+	}
+	
+	private String getClassArray(List<String> classNames) {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i=0; i<classNames.size(); i++) {
+			sb.append(classNames.get(i)).append(".class");
+			if (i < classNames.size() - 1) {
+				sb.append(", ");
+			}
+		}
+		return sb.append("}").toString();
+	}
+
+	/**
+	 * Return a list of expressions that unpack the elements of an Object[] called 'args' into
+	 * arguments of the given types, e.g. "(java.lang.String) args[0], ((java.lang.Integer) args[1]).intValue()"
+	 */
+	private String getInvokerArgs(String[] parameterTypes) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<parameterTypes.length; i++) {
+			String type = parameterTypes[i];
+			String wrapper = PRIMITIVE_WRAPPERS.get(type);
+			if (wrapper != null) {
+				sb.append("((").append(wrapper).append(") args[").append(i).append("]).")
+						.append(type).append("Value()");
+			} else {
+				sb.append("(").append(type).append(") args[").append(i).append("]");
+			}
+			if (i < parameterTypes.length - 1) {
+				sb.append(", ");
+			}
+		}
+		return sb.toString();
+	}
+
+	private String getArgs(String[] parameterTypes, boolean withTypes) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<parameterTypes.length; i++) {
+			if (withTypes) {
+				sb.append(parameterTypes[i]);
+				sb.append(' ');
+			}
+			sb.append("arg");
+			sb.append(i);
+			if (i < parameterTypes.length - 1) {
+				sb.append(", ");
+			}
+		}
+		return sb.toString();
+	}
+	
+}
+
+class JavaSourceBuilder {
+	
+	private int indentation;
+	
+	private StringBuilder sb = new StringBuilder();
+	
+	public JavaSourceBuilder() {
+		this(0);
+	}
+	
+	public JavaSourceBuilder(int indentation) {
+		this.indentation = indentation;
+	}
+
+	public void line(String text, Object... parameters) {
+		if (text.indexOf('}') != -1) {
+			indentation --;
+		}
+		for (int i=0; i<indentation; i++) {
+			sb.append("    ");
+		}
+		sb.append(String.format(text, (Object[]) parameters));
+		sb.append('\n');
+		if (text.indexOf('{') != -1) {
+			indentation ++;
+		}
+	}
+	
+	public void line() {
+		sb.append('\n');
+	}
+
+	public String toString() {
+		return sb.toString();
+	}
+	
+}
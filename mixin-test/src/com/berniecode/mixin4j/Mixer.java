@@ -9,6 +9,9 @@ import java.util.List;
  * 
  * <p>For anyone familiar with AOP terminology, this is the equivalent of a weaver.
  * 
+ * <p>{@link MixinSupport} creates one instance of each mixer class and uses it for every mixin
+ * base, possibly from several threads at once, so implementations must be thread safe.
+ * 
  * @author Bernard Sumption
  */
 public interface Mixer {
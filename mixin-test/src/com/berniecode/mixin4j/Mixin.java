@@ -15,12 +15,23 @@ public class Mixin<B> {
 	
 	private Class<?> mixinType;
 	private Class<?> mixinImpl;
+	private boolean lazy;
+	private boolean stateless;
 
 	public Mixin(Class<?> mixinType, Class<?> mixinImpl, Class<B> mixinBase) {
 		requireConcreteImplementationOfType(mixinType, mixinImpl, "mixin implementation", false);
 		requireConcreteImplementationOfType(mixinType, mixinBase, "mixin base", true);
 		this.mixinType = mixinType;
 		this.mixinImpl = mixinImpl;
+		MixinType annotation = mixinType.getAnnotation(MixinType.class);
+		this.lazy = annotation != null && annotation.lazy();
+		this.stateless = mixinImpl.isAnnotationPresent(Stateless.class);
+		if (stateless && MixinAware.class.isAssignableFrom(mixinImpl)) {
+			throw new MixinException("The mixin implementation class " + mixinImpl.getCanonicalName()
+					+ " can't be both @Stateless and MixinAware, because one instance is shared by all mixed objects.");
+		}
+		// checked once here, so that mixers can call setMixinBase on each new implementation without checking
+		MixinUtils.checkMixinAwareConstraint(mixinImpl, mixinBase);
 	}
 
 	private void requireConcreteImplementationOfType(Class<?> type, Class<?> impl, String implDesc, boolean isAbstract) {
@@ -52,6 +63,22 @@ public class Mixin<B> {
 	public Class<?> getMixinImpl() {
 		return this.mixinImpl;
 	}
+	
+	/**
+	 * Whether the implementation should be created when it is first used rather than along with
+	 * the mixed object, as specified by {@link MixinType#lazy()}
+	 */
+	public boolean isLazy() {
+		return this.lazy;
+	}
+	
+	/**
+	 * Whether one instance of the implementation is shared by all mixed objects, as specified
+	 * by the {@link Stateless} annotation
+	 */
+	public boolean isStateless() {
+		return this.stateless;
+	}
 
 
 }
\ No newline at end of file
@@ -21,12 +21,14 @@ package com.berniecode.mixin4j;
  * <p>since because of the way generic constraints work, that would ensure that the implementation
  * can only be mixed with the actual class <code>SomeType</code>, not any of its subtypes.
  * 
+ * <p>The constraint is checked when the {@link Mixin} is created, and a {@link MixinException}
+ * is thrown if the mixin base doesn't match it.
+ * 
  * @author Bernard Sumption
  *
  * @param <B> A type constraint on the base class
  */
 //TODO: implement functionality behind this type in new demo
-//TODO: check that mixin base matches constraints, and that constraint is in the form '? extends Foo'
 public interface MixinAware<B> {
 	
 	/**
@@ -0,0 +1,366 @@
+package com.berniecode.mixin4j;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * <p>An annotation processor that generates the mixed classes for {@link MixinBase} classes at
+ * compile time, so that {@link ClassGeneratingMixer} can load them instead of compiling them with
+ * Janino at runtime. The generated source is the same as {@link ClassGeneratingMixer} would produce.
+ * 
+ * <p>To use it, put this library on the annotation processor path when compiling mixin base classes.
+ * 
+ * <p>A mixin base is left to be mixed at runtime if it uses a different {@link Mixer}, or if any of
+ * its mixin types use an {@link ImplementationSource} other than {@link GenericParameterImplementationSource},
+ * since the implementation is then not known until runtime. The same goes for mixin bases that are
+ * invalid, so that the runtime can report the problem.
+ * 
+ * <p>It also writes an index of the mixins of every mixin base whose implementations are known at
+ * compile time to {@value MixinIndex#INDEX_RESOURCE}, whatever its {@link Mixer}. {@link MixinSupport}
+ * reads the index instead of resolving the mixins by reflection.
+ * 
+ * @author Bernard Sumption
+ */
+@SupportedAnnotationTypes("com.berniecode.mixin4j.MixinBase")
+public class MixinBaseProcessor extends AbstractProcessor {
+	
+	// the lines of the mixin index, mapped from mixin base name, collected over every round
+	private final Map<String, String> indexLines = new LinkedHashMap<String, String>();
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element: roundEnv.getElementsAnnotatedWith(MixinBase.class)) {
+			// mixed classes generated in an earlier round inherit @MixinBase
+			if (element.getKind() == ElementKind.CLASS && element.getAnnotation(PrecompiledMixins.class) == null) {
+				TypeElement mixinBase = (TypeElement) element;
+				List<TypeElement[]> mixins = getMixins(mixinBase);
+				if (mixins == null) {
+					continue;
+				}
+				indexLines.put(getBinaryName(mixinBase), getIndexLine(mixinBase, mixins));
+				String sourceCode = generateSource(mixinBase, mixins);
+				if (sourceCode != null) {
+					writeSource(mixinBase, sourceCode);
+				}
+			}
+		}
+		if (roundEnv.processingOver() && !indexLines.isEmpty()) {
+			writeIndex();
+		}
+		// other processors may also be interested in @MixinBase
+		return false;
+	}
+
+	/**
+	 * Return the source code of the mixed class for a mixin base, or null if it should be mixed at runtime
+	 */
+	private String generateSource(TypeElement mixinBase, List<TypeElement[]> mixins) {
+		Set<Modifier> modifiers = mixinBase.getModifiers();
+		if (mixinBase.getNestingKind() != NestingKind.TOP_LEVEL
+				|| getElements().getPackageOf(mixinBase).isUnnamed()
+				|| !modifiers.contains(Modifier.ABSTRACT)
+				|| modifiers.contains(Modifier.FINAL)) {
+			return null;
+		}
+		if (!isType(getClassValue(mixinBase, MixinBase.class, "mixerClass"), ClassGeneratingMixer.class)) {
+			return null;
+		}
+		
+		MixedClassSourceGenerator generator = new MixedClassSourceGenerator(
+				getElements().getPackageOf(mixinBase).getQualifiedName().toString(),
+				MixedClassSourceGenerator.getMixedClassName(mixinBase.getSimpleName().toString()),
+				mixinBase.getQualifiedName().toString());
+		for (TypeElement[] mixin: mixins) {
+			TypeElement mixinType = mixin[0];
+			TypeElement mixinImpl = mixin[1];
+			boolean stateless = mixinImpl.getAnnotation(Stateless.class) != null;
+			boolean mixinAware = isAssignable(mixinImpl.asType(), MixinAware.class);
+			if (stateless && mixinAware) {
+				// invalid, Mixin will report it at runtime
+				return null;
+			}
+			if (stateless) {
+				generator.addStatelessMixin(mixinType.getQualifiedName().toString(), mixinImpl.getQualifiedName().toString());
+			} else {
+				generator.addMixin(mixinType.getQualifiedName().toString(), mixinImpl.getQualifiedName().toString(),
+						mixinAware, Boolean.TRUE.equals(getAnnotationValue(mixinType, MixinType.class, "lazy")));
+			}
+			Map<String, ExecutableElement> methods = new LinkedHashMap<String, ExecutableElement>();
+			getMethods(mixinType, methods);
+			for (ExecutableElement method: methods.values()) {
+				generator.addDelegatedMethod(getSourceName(method.getReturnType()),
+						method.getSimpleName().toString(), getSourceNames(method.getParameters()),
+						stateless && hasStatelessOverload(mixinImpl, method, mixinBase));
+			}
+		}
+		
+		List<String[]> constructors = new ArrayList<String[]>();
+		for (ExecutableElement constructor: ElementFilter.constructorsIn(mixinBase.getEnclosedElements())) {
+			if (!constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				constructors.add(getSourceNames(constructor.getParameters()));
+			}
+		}
+		Collections.sort(constructors, MixedClassSourceGenerator.PARAMETER_LIST_ORDER);
+		for (String[] constructor: constructors) {
+			generator.addConstructor(constructor);
+		}
+		
+		return generator.getSource(true);
+	}
+	
+	/**
+	 * Return the mixin type and implementation of each mixin that {@link MixinSupport} would apply to
+	 * a mixin base, in the same order, or null if they can only be determined at runtime.
+	 */
+	private List<TypeElement[]> getMixins(TypeElement mixinBase) {
+		List<TypeElement[]> mixins = new ArrayList<TypeElement[]>();
+		TypeMirror c = mixinBase.asType();
+		while (c.getKind() == TypeKind.DECLARED) {
+			TypeElement classElement = (TypeElement) getTypes().asElement(c);
+			for (TypeMirror implemented: classElement.getInterfaces()) {
+				TypeElement mixinType = (TypeElement) getTypes().asElement(implemented);
+				TypeMirror sourceClass = getClassValue(mixinType, MixinType.class, "implementation");
+				if (sourceClass == null) {
+					continue;
+				}
+				TypeMirror mixinImpl = null;
+				if (getTypes().isAssignable(getTypes().erasure(sourceClass), getTypes().erasure(mixinType.asType()))) {
+					mixinImpl = sourceClass;
+				} else if (isType(sourceClass, GenericParameterImplementationSource.class)) {
+					mixinImpl = getGenericParameterImplementation(classElement, mixinType);
+					if (mixinImpl == null) {
+						return null;
+					}
+				} else if (isAssignable(sourceClass, ImplementationSource.class)) {
+					return null;
+				}
+				if (mixinImpl != null) {
+					mixins.add(new TypeElement[] {mixinType, (TypeElement) getTypes().asElement(mixinImpl)});
+				}
+			}
+			c = classElement.getSuperclass();
+		}
+		return mixins;
+	}
+
+	/**
+	 * The compile time equivalent of {@link GenericParameterImplementationSource#getImplementation(Class, Class)}.
+	 * Returns null if the implementation is {@link GenericParameterImplementationSource.Dynamic} or invalid.
+	 *
+	 * @param declaringClass the mixin base or superclass that implements the mixin type
+	 */
+	private TypeMirror getGenericParameterImplementation(TypeElement declaringClass, TypeElement mixinType) {
+		for (TypeMirror implemented: declaringClass.getInterfaces()) {
+			if (getTypes().asElement(implemented).equals(mixinType)) {
+				List<? extends TypeMirror> arguments = ((DeclaredType) implemented).getTypeArguments();
+				if (arguments.size() != 1 || arguments.get(0).getKind() != TypeKind.DECLARED) {
+					return null;
+				}
+				TypeMirror argument = arguments.get(0);
+				Element argumentElement = getTypes().asElement(argument);
+				if (argumentElement.getKind() != ElementKind.CLASS
+						|| argumentElement.getModifiers().contains(Modifier.ABSTRACT)
+						|| !getTypes().isAssignable(getTypes().erasure(argument), getTypes().erasure(mixinType.asType()))) {
+					return null;
+				}
+				return argument;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Collect the methods of an interface and the interfaces it extends, in the manner of {@link Class#getMethods()}
+	 */
+	private void getMethods(TypeElement type, Map<String, ExecutableElement> accumulator) {
+		for (ExecutableElement method: ElementFilter.methodsIn(type.getEnclosedElements())) {
+			if (!method.getModifiers().contains(Modifier.STATIC) && !method.getModifiers().contains(Modifier.PRIVATE)) {
+				String signature = method.getSimpleName() + Arrays.toString(getSourceNames(method.getParameters()));
+				if (!accumulator.containsKey(signature)) {
+					accumulator.put(signature, method);
+				}
+			}
+		}
+		for (TypeMirror extended: type.getInterfaces()) {
+			getMethods((TypeElement) getTypes().asElement(extended), accumulator);
+		}
+	}
+	
+	/**
+	 * Whether a {@link Stateless} implementation has an overload of a mixin type method that takes
+	 * the mixed object as an extra first parameter, in the manner of {@link MixinUtils#getStatelessMethod}
+	 */
+	private boolean hasStatelessOverload(TypeElement mixinImpl, ExecutableElement typeMethod, TypeElement mixinBase) {
+		String[] typeParameters = getSourceNames(typeMethod.getParameters());
+		for (ExecutableElement method: ElementFilter.methodsIn(getElements().getAllMembers(mixinImpl))) {
+			List<? extends VariableElement> parameters = method.getParameters();
+			if (method.getModifiers().contains(Modifier.PUBLIC)
+					&& method.getSimpleName().equals(typeMethod.getSimpleName())
+					&& parameters.size() == typeParameters.length + 1
+					&& getTypes().isAssignable(getTypes().erasure(mixinBase.asType()),
+							getTypes().erasure(parameters.get(0).asType()))
+					&& getSourceName(method.getReturnType()).equals(getSourceName(typeMethod.getReturnType()))
+					&& Arrays.equals(getSourceNames(parameters.subList(1, parameters.size())), typeParameters)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void writeSource(TypeElement mixinBase, String sourceCode) {
+		String mixedClassName = getElements().getPackageOf(mixinBase).getQualifiedName() + "."
+				+ MixedClassSourceGenerator.getMixedClassName(mixinBase.getSimpleName().toString());
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(mixedClassName, mixinBase);
+			Writer writer = file.openWriter();
+			try {
+				writer.write(sourceCode);
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR,
+					"Could not write mixed class " + mixedClassName + ": " + e, mixinBase);
+		}
+	}
+
+	/**
+	 * Return the index line for a mixin base, in the format read by {@link MixinIndex}
+	 */
+	private String getIndexLine(TypeElement mixinBase, List<TypeElement[]> mixins) {
+		StringBuilder line = new StringBuilder(getBinaryName(mixinBase));
+		for (TypeElement[] mixin: mixins) {
+			line.append(' ').append(getBinaryName(mixin[0])).append('=').append(getBinaryName(mixin[1]));
+		}
+		return line.toString();
+	}
+	
+	private void writeIndex() {
+		try {
+			FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+					MixinIndex.INDEX_RESOURCE);
+			Writer writer = file.openWriter();
+			try {
+				writer.write("# Generated by " + getClass().getName() + "\n");
+				for (String line: indexLines.values()) {
+					writer.write(line + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR,
+					"Could not write mixin index " + MixinIndex.INDEX_RESOURCE + ": " + e);
+		}
+	}
+
+	/**
+	 * Return the value of an annotation parameter of type Class, or null if the element does not
+	 * have the annotation
+	 */
+	private TypeMirror getClassValue(Element element, Class<? extends Annotation> annotationType, String name) {
+		return (TypeMirror) getAnnotationValue(element, annotationType, name);
+	}
+
+	/**
+	 * Return the value of an annotation parameter, or null if the element does not have the annotation
+	 */
+	private Object getAnnotationValue(Element element, Class<? extends Annotation> annotationType, String name) {
+		for (AnnotationMirror annotation: getElements().getAllAnnotationMirrors(element)) {
+			if (isType(annotation.getAnnotationType(), annotationType)) {
+				Map<? extends ExecutableElement, ? extends AnnotationValue> values
+						= getElements().getElementValuesWithDefaults(annotation);
+				for (ExecutableElement parameter: values.keySet()) {
+					if (parameter.getSimpleName().contentEquals(name)) {
+						return values.get(parameter).getValue();
+					}
+				}
+			}
+		}
+		return null;
+	}
+	
+	private boolean isType(TypeMirror type, Class<?> klass) {
+		return type != null && getSourceName(type).equals(klass.getCanonicalName());
+	}
+	
+	private boolean isAssignable(TypeMirror type, Class<?> klass) {
+		TypeElement classElement = getElements().getTypeElement(klass.getCanonicalName());
+		return getTypes().isAssignable(getTypes().erasure(type), getTypes().erasure(classElement.asType()));
+	}
+	
+	/**
+	 * The name used for a type in generated source, matching the name that
+	 * {@link ClassGeneratingMixer} uses for the equivalent Class at runtime
+	 */
+	private String getSourceName(TypeMirror type) {
+		return getTypes().erasure(type).toString();
+	}
+
+	/**
+	 * The name of a class as returned by {@link Class#getName()}
+	 */
+	private String getBinaryName(TypeElement type) {
+		return getElements().getBinaryName(type).toString();
+	}
+
+	private String[] getSourceNames(List<? extends VariableElement> parameters) {
+		String[] names = new String[parameters.size()];
+		for (int i=0; i<names.length; i++) {
+			names[i] = getSourceName(parameters.get(i).asType());
+		}
+		return names;
+	}
+	
+	private Elements getElements() {
+		return processingEnv.getElementUtils();
+	}
+	
+	private Types getTypes() {
+		return processingEnv.getTypeUtils();
+	}
+
+}
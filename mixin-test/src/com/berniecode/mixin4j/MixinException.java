@@ -14,4 +14,12 @@ public class MixinException extends RuntimeException {
 	public MixinException(String message, Exception e) {
 		super(message, e);
 	}
+
+	/**
+	 * For problems caused by an {@link Error}, such as a {@link LinkageError} from loading a
+	 * generated class
+	 */
+	public MixinException(String message, Error e) {
+		super(message, e);
+	}
 }
@@ -0,0 +1,197 @@
+package com.berniecode.mixin4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>The mixins of mixin base classes, as resolved at compile time by {@link MixinBaseProcessor}
+ * and written to {@value #INDEX_RESOURCE} in each jar or class folder. Reading them from the index
+ * saves {@link MixinSupport} from finding each mixin type and implementation by reflection.
+ *
+ * <p>Each line of the index is a mixin base followed by its mixins, separated by spaces:
+ *
+ * <pre>com.example.Base com.example.TypeA=com.example.ImplA com.example.TypeB=com.example.ImplB</pre>
+ *
+ * <p>All of the index files visible to a class loader are read once, the first time a class
+ * from that loader is looked up. An entry is only used if it still matches the annotations of the
+ * mixin base and its mixin types, so an index left over from an earlier build, or one for another
+ * version of the classes, falls back to reflection rather than mixing the wrong implementations.
+ *
+ * @author Bernard Sumption
+ */
+class MixinIndex {
+
+	static final String INDEX_RESOURCE = "META-INF/mixin4j/index";
+
+	private static final Map<ClassLoader, MixinIndex> indexes = new WeakHashMap<ClassLoader, MixinIndex>();
+
+	// a lock rather than a monitor, so that a virtual thread waiting for it doesn't pin its carrier thread
+	private static final Lock indexesLock = new ReentrantLock();
+
+	// the mixin types and implementations of each mixin base, alternating, mapped from mixin base name
+	// doesn't refer to the class loader, which would stop it being removed from indexes
+	private final Map<String, String[]> entries = new HashMap<String, String[]>();
+
+	private MixinIndex() {
+	}
+
+	/**
+	 * Return the mixins of a mixin base from the index, or null if it isn't in the index and they
+	 * must be resolved by reflection
+	 */
+	static <T> List<Mixin<T>> getMixins(Class<T> mixinBase) {
+		ClassLoader classLoader = mixinBase.getClassLoader();
+		if (classLoader == null) {
+			return null;
+		}
+		MixinIndex index;
+		indexesLock.lock();
+		try {
+			index = indexes.get(classLoader);
+		} finally {
+			indexesLock.unlock();
+		}
+		if (index == null) {
+			// read without holding the lock, as it may block on I/O. Threads that race to read the
+			// same index each read it, but only the first to finish is kept.
+			MixinIndex newIndex = new MixinIndex();
+			newIndex.read(classLoader);
+			indexesLock.lock();
+			try {
+				index = indexes.get(classLoader);
+				if (index == null) {
+					index = newIndex;
+					indexes.put(classLoader, index);
+				}
+			} finally {
+				indexesLock.unlock();
+			}
+		}
+		return index.lookup(mixinBase);
+	}
+
+	private void read(ClassLoader classLoader) {
+		try {
+			Enumeration<URL> resources = classLoader.getResources(INDEX_RESOURCE);
+			while (resources.hasMoreElements()) {
+				URL resource = resources.nextElement();
+				BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openStream(), "UTF-8"));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						line = line.trim();
+						if (line.length() == 0 || line.startsWith("#")) {
+							continue;
+						}
+						String[] parts = line.split(" ");
+						String[] mixins = new String[(parts.length - 1) * 2];
+						for (int i=1; i<parts.length; i++) {
+							String[] mixin = parts[i].split("=");
+							if (mixin.length != 2) {
+								throw new MixinException("Invalid line in " + resource + ": " + line);
+							}
+							mixins[(i - 1) * 2] = mixin[0];
+							mixins[(i - 1) * 2 + 1] = mixin[1];
+						}
+						// the first index on the class path wins, as with classes
+						if (!entries.containsKey(parts[0])) {
+							entries.put(parts[0], mixins);
+						}
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		} catch (IOException e) {
+			throw new MixinException("Could not read mixin index " + INDEX_RESOURCE, e);
+		}
+	}
+
+	/**
+	 * Return the mixins of a mixin base from its entry, or null if the entry no longer matches the
+	 * {@link MixinType} interfaces of the mixin base and the implementations their annotations give,
+	 * because they have changed since the index was written
+	 */
+	private <T> List<Mixin<T>> lookup(Class<T> mixinBase) {
+		String[] names = entries.get(mixinBase.getName());
+		if (names == null) {
+			return null;
+		}
+		// the same resolution as MixinSupport and MixinBaseProcessor, but only for the implementation
+		// sources that can be indexed, so that no ImplementationSource is created
+		List<Mixin<T>> mixins = new ArrayList<Mixin<T>>();
+		for (Class<?> declaringClass = mixinBase; declaringClass != null; declaringClass = declaringClass.getSuperclass()) {
+			for (Class<?> mixinType: declaringClass.getInterfaces()) {
+				MixinType annotation = mixinType.getAnnotation(MixinType.class);
+				if (annotation == null) {
+					continue;
+				}
+				Class<?> sourceClass = annotation.implementation();
+				Class<?> mixinImpl;
+				if (mixinType.isAssignableFrom(sourceClass)) {
+					mixinImpl = sourceClass;
+				} else if (sourceClass == GenericParameterImplementationSource.class) {
+					mixinImpl = getGenericParameterImplementation(declaringClass, mixinType);
+					if (mixinImpl == null) {
+						return null;
+					}
+				} else if (ImplementationSource.class.isAssignableFrom(sourceClass)) {
+					// only known at runtime, so the mixin base wouldn't have been indexed
+					return null;
+				} else {
+					continue;
+				}
+				int i = mixins.size() * 2;
+				if (i >= names.length || !names[i].equals(mixinType.getName()) || !names[i + 1].equals(mixinImpl.getName())) {
+					// the index is out of date
+					return null;
+				}
+				mixins.add(new Mixin<T>(mixinType, mixinImpl, mixinBase));
+			}
+		}
+		if (mixins.size() * 2 != names.length) {
+			// the index is out of date
+			return null;
+		}
+		return mixins;
+	}
+
+	/**
+	 * The implementation given by the type argument of a mixin type, as in
+	 * {@link GenericParameterImplementationSource#getImplementation(Class, Class)}, or null if it
+	 * isn't a class that implements the mixin type
+	 *
+	 * @param declaringClass the mixin base or superclass that implements the mixin type
+	 */
+	private static Class<?> getGenericParameterImplementation(Class<?> declaringClass, Class<?> mixinType) {
+		for (Type implemented: declaringClass.getGenericInterfaces()) {
+			if (implemented instanceof ParameterizedType && ((ParameterizedType) implemented).getRawType() == mixinType) {
+				Type[] arguments = ((ParameterizedType) implemented).getActualTypeArguments();
+				if (arguments.length != 1 || !(arguments[0] instanceof Class)) {
+					return null;
+				}
+				Class<?> argument = (Class<?>) arguments[0];
+				if (argument.isInterface() || Modifier.isAbstract(argument.getModifiers())
+						|| !mixinType.isAssignableFrom(argument)) {
+					return null;
+				}
+				return argument;
+			}
+		}
+		return null;
+	}
+
+}
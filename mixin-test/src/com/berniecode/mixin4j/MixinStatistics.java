@@ -0,0 +1,142 @@
+package com.berniecode.mixin4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A snapshot of the statistics of a {@link MixinSupport}, returned by
+ * {@link MixinSupport#getStatistics()}. See {@link MixinStatisticsMXBean} for the meaning of
+ * each value.
+ *
+ * @author Bernard Sumption
+ */
+public class MixinStatistics implements MixinStatisticsMXBean {
+
+	private final long factoriesGenerated;
+	private final long factoryGenerationTime;
+	private final long failures;
+	private final long factoryCacheHits;
+	private final long factoryCacheMisses;
+	private final long factoryCacheEvictions;
+	private final long factoriesCollected;
+	private final int factoryCacheSize;
+	private final Map<String, Long> instancesCreatedByBase;
+	private final long sourceGenerationTime;
+	private final long compilationTime;
+	private final long classesCompiled;
+	private final long classCacheHits;
+	private final long classCacheMisses;
+
+	MixinStatistics(long factoriesGenerated, long factoryGenerationTime, long failures,
+			long factoryCacheHits, long factoryCacheMisses, long factoryCacheEvictions, long factoriesCollected,
+			int factoryCacheSize, Map<String, Long> instancesCreatedByBase) {
+		this.factoriesGenerated = factoriesGenerated;
+		this.factoryGenerationTime = factoryGenerationTime;
+		this.failures = failures;
+		this.factoryCacheHits = factoryCacheHits;
+		this.factoryCacheMisses = factoryCacheMisses;
+		this.factoryCacheEvictions = factoryCacheEvictions;
+		this.factoriesCollected = factoriesCollected;
+		this.factoryCacheSize = factoryCacheSize;
+		this.instancesCreatedByBase = Collections.unmodifiableMap(instancesCreatedByBase);
+		sourceGenerationTime = ClassGenerationStatistics.SOURCE_GENERATION_TIME.sum();
+		compilationTime = ClassGenerationStatistics.COMPILATION_TIME.sum();
+		classesCompiled = ClassGenerationStatistics.CLASSES_COMPILED.sum();
+		classCacheHits = ClassGenerationStatistics.CLASS_CACHE_HITS.sum();
+		classCacheMisses = ClassGenerationStatistics.CLASS_CACHE_MISSES.sum();
+	}
+
+	public long getFactoriesGenerated() {
+		return factoriesGenerated;
+	}
+
+	public long getFactoryGenerationTime() {
+		return factoryGenerationTime;
+	}
+
+	public long getFailures() {
+		return failures;
+	}
+
+	public long getFactoryCacheHits() {
+		return factoryCacheHits;
+	}
+
+	public long getFactoryCacheMisses() {
+		return factoryCacheMisses;
+	}
+
+	public long getFactoryCacheEvictions() {
+		return factoryCacheEvictions;
+	}
+
+	public long getFactoriesCollected() {
+		return factoriesCollected;
+	}
+
+	public int getFactoryCacheSize() {
+		return factoryCacheSize;
+	}
+
+	public long getInstancesCreated() {
+		long total = 0;
+		for (long count: instancesCreatedByBase.values()) {
+			total += count;
+		}
+		return total;
+	}
+
+	public Map<String, Long> getInstancesCreatedByBase() {
+		return instancesCreatedByBase;
+	}
+
+	public long getSourceGenerationTime() {
+		return sourceGenerationTime;
+	}
+
+	public long getCompilationTime() {
+		return compilationTime;
+	}
+
+	public long getClassesCompiled() {
+		return classesCompiled;
+	}
+
+	public long getClassCacheHits() {
+		return classCacheHits;
+	}
+
+	public long getClassCacheMisses() {
+		return classCacheMisses;
+	}
+
+	/**
+	 * A summary of the statistics, with instance counts by class, most instances first
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d factories generated in %.1f ms, %d failed%n",
+				factoriesGenerated, factoryGenerationTime / 1e6, failures));
+		sb.append(String.format("factory cache: %d factories, %d hits, %d misses, %d evicted, %d collected%n",
+				factoryCacheSize, factoryCacheHits, factoryCacheMisses, factoryCacheEvictions, factoriesCollected));
+		sb.append(String.format("ClassGeneratingMixer: %.1f ms generating source, %d classes compiled in %.1f ms, "
+				+ "class cache: %d hits, %d misses%n", sourceGenerationTime / 1e6, classesCompiled,
+				compilationTime / 1e6, classCacheHits, classCacheMisses));
+		sb.append(String.format("%d instances created%n", getInstancesCreated()));
+		List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(instancesCreatedByBase.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+			public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+				return e2.getValue().compareTo(e1.getValue());
+			}
+		});
+		for (Map.Entry<String, Long> entry: entries) {
+			sb.append(String.format("%12d  %s%n", entry.getValue(), entry.getKey()));
+		}
+		return sb.toString();
+	}
+
+}
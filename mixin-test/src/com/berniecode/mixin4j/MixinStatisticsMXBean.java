@@ -0,0 +1,102 @@
+package com.berniecode.mixin4j;
+
+import java.util.Map;
+
+/**
+ * <p>The statistics of a {@link MixinSupport}, as registered with JMX by
+ * {@link MixinSupport#registerMBean(String)} and returned by {@link MixinSupport#getStatistics()}.
+ *
+ * <p>All times are in nanoseconds, and all counts are totals since the MixinSupport was created,
+ * except for those marked as shared by the whole JVM.
+ *
+ * @author Bernard Sumption
+ */
+public interface MixinStatisticsMXBean {
+
+	/**
+	 * @return the number of mixin base classes whose factories have been generated
+	 */
+	public long getFactoriesGenerated();
+
+	/**
+	 * @return the time spent generating factories, including resolving mixins, generating
+	 * source code and compiling it
+	 */
+	public long getFactoryGenerationTime();
+
+	/**
+	 * @return the number of attempts to generate a factory that failed
+	 */
+	public long getFailures();
+
+	/**
+	 * @return the number of times that an existing factory was used
+	 */
+	public long getFactoryCacheHits();
+
+	/**
+	 * @return the number of times that a factory had to be generated, or waited for while
+	 * another thread generated it
+	 */
+	public long getFactoryCacheMisses();
+
+	/**
+	 * @return the number of factories removed from the cache because it was full
+	 */
+	public long getFactoryCacheEvictions();
+
+	/**
+	 * @return the number of factories removed from the cache because they were held softly and
+	 * have been garbage collected. These are noticed when a factory is added, so the count can lag
+	 * behind.
+	 */
+	public long getFactoriesCollected();
+
+	/**
+	 * @return the number of factories in the cache, including any being generated
+	 */
+	public int getFactoryCacheSize();
+
+	/**
+	 * @return the number of instances created through the MixinSupport by the factories that are
+	 * still cached
+	 */
+	public long getInstancesCreated();
+
+	/**
+	 * @return the number of instances created through the MixinSupport by the factories that are
+	 * still cached, mapped from mixin base class name
+	 */
+	public Map<String, Long> getInstancesCreatedByBase();
+
+	/**
+	 * @return the time that {@link ClassGeneratingMixer} has spent generating source code,
+	 * shared by the whole JVM
+	 */
+	public long getSourceGenerationTime();
+
+	/**
+	 * @return the time that {@link ClassGeneratingMixer} has spent compiling source code with
+	 * Janino, shared by the whole JVM
+	 */
+	public long getCompilationTime();
+
+	/**
+	 * @return the number of mixed classes that {@link ClassGeneratingMixer} has compiled,
+	 * shared by the whole JVM
+	 */
+	public long getClassesCompiled();
+
+	/**
+	 * @return the number of mixed classes that {@link ClassGeneratingMixer} loaded from the
+	 * class cache folder, shared by the whole JVM
+	 */
+	public long getClassCacheHits();
+
+	/**
+	 * @return the number of mixed classes that {@link ClassGeneratingMixer} looked for in the
+	 * class cache folder and had to compile, shared by the whole JVM
+	 */
+	public long getClassCacheMisses();
+
+}
@@ -1,10 +1,38 @@
 package com.berniecode.mixin4j;
 
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 /**
  * <p>Provides static methods to apply mixins to mixin base classes.
@@ -14,20 +42,35 @@ import java.util.Map;
  */
 public class MixinSupport implements MixinEngine {
 	
-	private static MixinSupport singleton;
-	
-	private static Object singletonLock = new Object();
+	/**
+	 * Holds the singleton, which the JVM creates safely the first time that the holder class is
+	 * used, so that {@link #getSingleton()} doesn't need to lock
+	 */
+	private static class SingletonHolder {
+		static final MixinSupport singleton = new MixinSupport();
+	}
 	
 	/**
 	 * @return an instance of this class for general purpose use
 	 */
 	public static MixinSupport getSingleton() {
-		synchronized (singletonLock) {
-			if (singleton == null) {
-				singleton = new MixinSupport();
-			}
-		}
-		return singleton;
+		return SingletonHolder.singleton;
+	}
+	
+	/**
+	 * Create a MixinSupport that caches factories according to the default policy, see
+	 * {@link FactoryCachePolicy#getDefault()}
+	 */
+	public MixinSupport() {
+		this(FactoryCachePolicy.getDefault());
+	}
+	
+	/**
+	 * Create a MixinSupport that caches factories according to a policy
+	 */
+	public MixinSupport(FactoryCachePolicy cachePolicy) {
+		this.cachePolicy = cachePolicy;
+		trackRecency = cachePolicy.isBounded() && cachePolicy.getEviction() == FactoryCachePolicy.Eviction.LEAST_RECENTLY_USED;
 	}
 	
 	//
@@ -38,56 +81,640 @@ public class MixinSupport implements MixinEngine {
 	 * {@inheritDoc}
 	 */
 	public <T> T newInstanceOf(Class<T> mixinBase) {
-		MixinUtils.validateMixinBase(mixinBase);
-		return getFactory(mixinBase).newInstance();
+		FactoryEntry<T> entry = getFactoryEntry(mixinBase);
+		T instance = entry.factory.newInstance();
+		entry.instancesCreated.increment();
+		return instance;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public <T> T newInstanceOf(Class<T> mixinBase, Class<?>[] constructorArgTypes, Object[] constructorArgs) {
-		MixinUtils.validateMixinBase(mixinBase);
-		return getFactory(mixinBase).newInstance(constructorArgTypes, constructorArgs);
+		FactoryEntry<T> entry = getFactoryEntry(mixinBase);
+		T instance = entry.factory.newInstance(constructorArgTypes, constructorArgs);
+		entry.instancesCreated.increment();
+		return instance;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public <T> T newInstanceOf(Class<T> mixinBase, Object[] constructorArgs) {
-		MixinUtils.validateMixinBase(mixinBase);
-		Class<?>[] constructorArgTypes = MixinUtils.getConstructorArgTypes(mixinBase, constructorArgs.length);
-		return getFactory(mixinBase).newInstance(constructorArgTypes, constructorArgs);
+		FactoryEntry<T> entry = getFactoryEntry(mixinBase);
+		ConstructorInvoker<? extends T> constructor = entry.getConstructor(constructorArgs.length);
+		// the only creation path that doesn't go through a Factory, which records the event otherwise
+		Object event = FlightRecorderEvents.MIXED_OBJECT_CREATED.beginSample();
+		T instance;
+		try {
+			instance = constructor.newInstance(constructorArgs);
+		} catch (RuntimeException e) {
+			throw new MixinException("The constructor invocation threw an exception", e);
+		}
+		if (event != null) {
+			FlightRecorderEvents.MIXED_OBJECT_CREATED.commit(event, instance.getClass(), FlightRecorderEvents.SAMPLE_INTERVAL);
+		}
+		entry.instancesCreated.increment();
+		return instance;
+	}
+	
+	/**
+	 * <p>Create a number of instances of a mixin base class with its no-arg constructor, using
+	 * {@link AbstractFactory#newInstances(int)}. They are counted in the statistics like instances
+	 * created one at a time.
+	 * 
+	 * @return the new objects, in a list created with room for exactly that many
+	 */
+	public <T> List<T> newInstancesOf(Class<T> mixinBase, int count) {
+		FactoryEntry<T> entry = getFactoryEntry(mixinBase);
+		List<T> instances = toList(AbstractFactory.adapt(entry.factory).newInstances(count));
+		entry.instancesCreated.add(count);
+		return instances;
+	}
+	
+	/**
+	 * <p>Create a number of instances of a mixin base class with specific constructor arguments for
+	 * each one, using {@link AbstractFactory#newInstances(int, Class[], ConstructorArguments)}. They
+	 * are counted in the statistics like instances created one at a time.
+	 * 
+	 * @return the new objects, in a list created with room for exactly that many
+	 */
+	public <T> List<T> newInstancesOf(Class<T> mixinBase, int count, Class<?>[] constructorArgTypes,
+			ConstructorArguments constructorArgs) {
+		FactoryEntry<T> entry = getFactoryEntry(mixinBase);
+		List<T> instances = toList(AbstractFactory.adapt(entry.factory).newInstances(count, constructorArgTypes, constructorArgs));
+		entry.instancesCreated.add(count);
+		return instances;
+	}
+	
+	/**
+	 * Return a new list of a subtype as a list of the type, without copying it
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> toList(List<? extends T> instances) {
+		// safe because nothing else refers to the list, so nothing else can expect it to hold only the subtype
+		return (List<T>) instances;
 	}
 	
 	public <T> T create(Class<T> mixinBase, Object... constructorArgs) {
 		return newInstanceOf(mixinBase, constructorArgs);
 	}
 	
+	/**
+	 * @return the hits and misses of the shared instances of {@link Mixer} and
+	 * {@link ImplementationSource} classes, one of which is looked up for each mixin base and
+	 * for each mixin type that uses an implementation source
+	 */
+	public HitCounter getInstanceCacheCounter() {
+		return instanceCounter;
+	}
+	
+	/**
+	 * @return the hits and misses of the remembered results of
+	 * {@link ImplementationSource#getImplementation(Class, Class)}
+	 */
+	public HitCounter getResolutionCacheCounter() {
+		return resolutionCounter;
+	}
+	
+	/**
+	 * @return the policy for caching factories
+	 */
+	public FactoryCachePolicy getCachePolicy() {
+		return cachePolicy;
+	}
+	
+	/**
+	 * Register a listener to be told when a factory is evicted because the cache is full
+	 */
+	public void addEvictionListener(FactoryEvictionListener listener) {
+		evictionListeners.add(listener);
+	}
+	
+	public void removeEvictionListener(FactoryEvictionListener listener) {
+		evictionListeners.remove(listener);
+	}
+	
+	/**
+	 * Return a snapshot of the statistics of this MixinSupport. Recording them is cheap enough
+	 * that it is always done.
+	 */
+	public MixinStatistics getStatistics() {
+		Map<String, Long> instancesCreated = new TreeMap<String, Long>();
+		Map<Class<?>, FutureTask<FactoryEntry<?>>> cachedFactories = factoryCache.snapshot();
+		for (Map.Entry<Class<?>, FutureTask<FactoryEntry<?>>> cached: cachedFactories.entrySet()) {
+			FutureTask<FactoryEntry<?>> task = cached.getValue();
+			if (task.isDone()) {
+				try {
+					instancesCreated.put(cached.getKey().getName(), task.get().instancesCreated.sum());
+				} catch (Exception e) {
+					// failed to generate, so no instances
+				}
+			}
+		}
+		return new MixinStatistics(factoriesGenerated.sum(), factoryGenerationTime.sum(), failures.sum(),
+				factoryCacheHits.sum(), factoryCacheMisses.sum(), factoryCacheEvictions.sum(), factoriesCollected.sum(),
+				cachedFactories.size(), instancesCreated);
+	}
+	
+	/**
+	 * Register the statistics of this MixinSupport with the platform MBean server, so that they
+	 * can be monitored with JMX tools such as JConsole.
+	 * 
+	 * @param objectName the name to register them under, e.g. "com.berniecode.mixin4j:type=MixinSupport"
+	 * @throws MixinException if the name is invalid or already registered
+	 */
+	public void registerMBean(String objectName) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new MixinStatisticsMXBean() {
+				public long getFactoriesGenerated() {
+					return factoriesGenerated.sum();
+				}
+				public long getFactoryGenerationTime() {
+					return factoryGenerationTime.sum();
+				}
+				public long getFailures() {
+					return failures.sum();
+				}
+				public long getFactoryCacheHits() {
+					return factoryCacheHits.sum();
+				}
+				public long getFactoryCacheMisses() {
+					return factoryCacheMisses.sum();
+				}
+				public long getFactoryCacheEvictions() {
+					return factoryCacheEvictions.sum();
+				}
+				public long getFactoriesCollected() {
+					return factoriesCollected.sum();
+				}
+				public int getFactoryCacheSize() {
+					return factoryCache.size();
+				}
+				public long getInstancesCreated() {
+					return getStatistics().getInstancesCreated();
+				}
+				public Map<String, Long> getInstancesCreatedByBase() {
+					return getStatistics().getInstancesCreatedByBase();
+				}
+				public long getSourceGenerationTime() {
+					return ClassGenerationStatistics.SOURCE_GENERATION_TIME.sum();
+				}
+				public long getCompilationTime() {
+					return ClassGenerationStatistics.COMPILATION_TIME.sum();
+				}
+				public long getClassesCompiled() {
+					return ClassGenerationStatistics.CLASSES_COMPILED.sum();
+				}
+				public long getClassCacheHits() {
+					return ClassGenerationStatistics.CLASS_CACHE_HITS.sum();
+				}
+				public long getClassCacheMisses() {
+					return ClassGenerationStatistics.CLASS_CACHE_MISSES.sum();
+				}
+			}, MixinStatisticsMXBean.class, true), new ObjectName(objectName));
+		} catch (JMException e) {
+			throw new MixinException("Could not register MBean '" + objectName + "'", e);
+		}
+	}
+	
+	/**
+	 * <p>Resolve the mixins of a number of mixin base classes and generate their factories in
+	 * parallel, so that creating the first instance of each one later is fast. Blocks until
+	 * every class has been prepared.
+	 * 
+	 * <p>A class that can't be prepared is recorded in the report rather than stopping the others;
+	 * creating an instance of it later will fail with the same error.
+	 * 
+	 * @return the time taken to prepare each class, and any failures
+	 */
+	public PreparationReport prepare(Collection<? extends Class<?>> mixinBases) {
+		try {
+			return prepareAsync(mixinBases).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MixinException("Interrupted while preparing mixin base classes", e);
+		} catch (ExecutionException e) {
+			// not thrown, failures are recorded in the report
+			throw new MixinException("Could not prepare mixin base classes", e);
+		}
+	}
+	
+	/**
+	 * <p>As {@link #prepare(Collection)}, but returns immediately. The classes are prepared on a
+	 * pool of daemon threads, one per processor, which is shut down once they are done.
+	 */
+	public Future<PreparationReport> prepareAsync(Collection<? extends Class<?>> mixinBases) {
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+				PREPARATION_THREAD_FACTORY);
+		try {
+			return prepareAsync(mixinBases, executor);
+		} finally {
+			// lets the submitted tasks finish, then ends the threads
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * <p>As {@link #prepare(Collection)}, but returns immediately, preparing the classes with tasks
+	 * submitted to the given executor.
+	 * 
+	 * <p>Classes mixed by {@link ClassGeneratingMixer} are compiled in batches, one task per batch,
+	 * which is much faster than compiling them one at a time. Other classes get a task each.
+	 * 
+	 * <p>Tasks that the executor rejects are run on the calling thread before this method returns.
+	 * The returned future can't be cancelled.
+	 */
+	public Future<PreparationReport> prepareAsync(Collection<? extends Class<?>> mixinBases, Executor executor) {
+		Set<Class<?>> distinctBases = new LinkedHashSet<Class<?>>(mixinBases);
+		final PreparationFuture future = new PreparationFuture(distinctBases.size());
+		
+		List<Class<?>> compiledBases = new ArrayList<Class<?>>();
+		for (final Class<?> mixinBase: distinctBases) {
+			MixinBase annotation = mixinBase.getAnnotation(MixinBase.class);
+			if (annotation != null && annotation.mixerClass() == ClassGeneratingMixer.class
+					&& !factoryCache.containsKey(mixinBase)) {
+				compiledBases.add(mixinBase);
+				continue;
+			}
+			execute(executor, new Runnable() {
+				public void run() {
+					prepareClass(mixinBase, 0, future);
+				}
+			});
+		}
+		
+		// enough batches to keep the processors busy, but not so many that they are too small to benefit
+		int batchCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+				compiledBases.size() / MIN_BATCH_SIZE));
+		for (int i=0; i<batchCount && i<compiledBases.size(); i++) {
+			final List<Class<?>> batch = new ArrayList<Class<?>>();
+			for (int j=i; j<compiledBases.size(); j+=batchCount) {
+				batch.add(compiledBases.get(j));
+			}
+			execute(executor, new Runnable() {
+				public void run() {
+					prepareBatch(batch, future);
+				}
+			});
+		}
+		return future;
+	}
+	
+	/**
+	 * Submit a preparation task, or run it on this thread if the executor rejects it, for example
+	 * because it has been shut down or its queue is full. Otherwise the task's classes would never
+	 * be finished and the future would never be done.
+	 */
+	private static void execute(Executor executor, Runnable task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.run();
+		}
+	}
+	
 	//
 	// PRIVATE MACHINERY
 	//
 
 
-	private Map<Class<?>, Factory<?>> factoryCache = new HashMap<Class<?>, Factory<?>>();
-
-	// safe because putFactoryCache ensures that only Factory<? extends T> is stored with a key Class<T>
-	private <T> Factory<? extends T> getFactoryCache(Class<T> mixinClass) {
-		return (Factory<? extends T>) factoryCache.get(mixinClass);
+	/**
+	 * Maps each mixin base class to a task that generates its factory. Using a task rather than
+	 * the factory itself means that when several threads request the same class at once, exactly
+	 * one of them runs the (expensive) generation and the others wait for its result. Waiting
+	 * threads park rather than block on a monitor, so virtual threads free their carrier threads.
+	 * Once a factory has been generated, creating instances takes no locks or monitors at all.
+	 * 
+	 * <p>None of these caches keep classes alive, so that mixin bases and their class loaders can
+	 * be unloaded. Factories are held as the cache policy says, except that the factories of
+	 * {@link BaseLoaderMixer} are never held strongly, because they are cheap to recreate and
+	 * otherwise keep their mixin base alive.
+	 */
+	private final WeakClassMap<FutureTask<FactoryEntry<?>>> factoryCache = new WeakClassMap<FutureTask<FactoryEntry<?>>>();
+	
+	/**
+	 * The one instance of each {@link Mixer} and {@link ImplementationSource} class, held softly
+	 */
+	private final WeakClassMap<Object> sharedInstances = new WeakClassMap<Object>();
+	private final HitCounter instanceCounter = new HitCounter();
+	
+	/**
+	 * The implementations returned by implementation sources for each mixin type, mapped from the
+	 * class that declares that it implements the mixin type, so that mixin bases that inherit a mixin
+	 * type from a shared superclass share its resolution. Held softly.
+	 */
+	private final WeakClassMap<ConcurrentMap<ResolutionKey, Class<?>>> resolutionCache
+			= new WeakClassMap<ConcurrentMap<ResolutionKey, Class<?>>>();
+	private final HitCounter resolutionCounter = new HitCounter();
+	
+	private final StripedCounter factoriesGenerated = new StripedCounter();
+	private final StripedCounter factoryGenerationTime = new StripedCounter();
+	private final StripedCounter failures = new StripedCounter();
+	private final StripedCounter factoryCacheHits = new StripedCounter();
+	private final StripedCounter factoryCacheMisses = new StripedCounter();
+	private final StripedCounter factoryCacheEvictions = new StripedCounter();
+	private final StripedCounter factoriesCollected = new StripedCounter();
+	
+	private final FactoryCachePolicy cachePolicy;
+	
+	private final List<FactoryEvictionListener> evictionListeners = new CopyOnWriteArrayList<FactoryEvictionListener>();
+	
+	// whether to record when each factory was last used, for least recently used eviction
+	private final boolean trackRecency;
+	
+	// counts the factories added to the cache, and is the time that FactoryEntry.lastUsed is measured in
+	private final AtomicLong cacheClock = new AtomicLong();
+	
+	// safe because createFactoryEntry only ever produces a FactoryEntry<C> for a key Class<C>
+	private <C> FactoryEntry<C> getFactoryEntry(final Class<C> mixinBase) {
+		FutureTask<FactoryEntry<?>> task = factoryCache.get(mixinBase);
+		if (task != null && task.isDone()) {
+			factoryCacheHits.increment();
+		} else {
+			factoryCacheMisses.increment();
+		}
+		if (task == null) {
+			FutureTask<FactoryEntry<?>> newTask = new FutureTask<FactoryEntry<?>>(new Callable<FactoryEntry<?>>() {
+				public FactoryEntry<?> call() {
+					long start = System.nanoTime();
+					boolean succeeded = false;
+					try {
+						FactoryEntry<?> entry = createFactoryEntry(mixinBase);
+						succeeded = true;
+						return entry;
+					} finally {
+						factoryGenerationTime.add(System.nanoTime() - start);
+						if (succeeded) {
+							factoriesGenerated.increment();
+						} else {
+							failures.increment();
+						}
+					}
+				}
+			});
+			task = factoryCache.putIfAbsent(mixinBase, newTask, getRetention(mixinBase));
+			if (task == null) {
+				task = newTask;
+				task.run();
+				factoryAdded(mixinBase);
+			}
+		}
+		try {
+			@SuppressWarnings("unchecked")
+			FactoryEntry<C> entry = (FactoryEntry<C>) task.get();
+			if (trackRecency) {
+				// only written once per factory added, so that threads using the same entry don't contend
+				long now = cacheClock.get();
+				if (entry.lastUsed != now) {
+					entry.lastUsed = now;
+				}
+			}
+			return entry;
+		} catch (ExecutionException e) {
+			// forget the failed attempt so that a later call can try again
+			factoryCache.remove(mixinBase, task);
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new MixinException("Could not create factory for '" + mixinBase.getCanonicalName() + "'", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MixinException("Interrupted while waiting for the factory for '"
+					+ mixinBase.getCanonicalName() + "' to be created", e);
+		}
+	}
+	
+	// the smallest number of classes worth compiling on a thread of their own
+	private static final int MIN_BATCH_SIZE = 10;
+	
+	/**
+	 * Prepare one class, recording the result in the report
+	 * 
+	 * @param sharedTime time already spent preparing the class along with others
+	 */
+	private void prepareClass(Class<?> mixinBase, long sharedTime, PreparationFuture future) {
+		long start = System.nanoTime() - sharedTime;
+		try {
+			getFactoryEntry(mixinBase);
+			future.report.prepared(mixinBase, System.nanoTime() - start);
+		} catch (Throwable e) {
+			future.report.failed(mixinBase, System.nanoTime() - start, e);
+		} finally {
+			future.classFinished();
+		}
+	}
+	
+	/**
+	 * Prepare a number of classes mixed by {@link ClassGeneratingMixer}, compiling them together.
+	 * The time taken is divided equally between them in the report.
+	 */
+	private void prepareBatch(List<Class<?>> mixinBases, PreparationFuture future) {
+		long start = System.nanoTime();
+		Map<Class<?>, List<Mixin<?>>> mixinsByBase = new LinkedHashMap<Class<?>, List<Mixin<?>>>();
+		for (Class<?> mixinBase: mixinBases) {
+			try {
+				MixinUtils.validateMixinBase(mixinBase);
+				mixinsByBase.put(mixinBase, new ArrayList<Mixin<?>>(resolveMixins(mixinBase)));
+			} catch (RuntimeException e) {
+				// left out of the batch, and reported when it is prepared on its own below
+			}
+		}
+		try {
+			Map<Class<?>, Factory<?>> factories = getSharedInstance(ClassGeneratingMixer.class).getFactories(mixinsByBase);
+			for (Map.Entry<Class<?>, Factory<?>> factory: factories.entrySet()) {
+				if (addFactoryEntry(factory.getKey(), factory.getValue())) {
+					factoriesGenerated.increment();
+				}
+			}
+			factoryGenerationTime.add(System.nanoTime() - start);
+		} catch (Exception e) {
+			// prepare each class on its own below, so that the error is reported against the class that caused it
+		}
+		long sharedTime = (System.nanoTime() - start) / mixinBases.size();
+		for (Class<?> mixinBase: mixinBases) {
+			prepareClass(mixinBase, sharedTime, future);
+		}
+	}
+	
+	/**
+	 * Cache a factory that was generated outside of {@link #getFactoryEntry(Class)}, unless another
+	 * thread has got there first
+	 * 
+	 * @return true if the factory was added
+	 */
+	private <C> boolean addFactoryEntry(Class<C> mixinBase, Factory<?> factory) {
+		// safe because the factory's class was generated from mixinBase
+		@SuppressWarnings("unchecked")
+		Factory<? extends C> baseFactory = (Factory<? extends C>) factory;
+		final FactoryEntry<C> entry = createFactoryEntry(mixinBase, baseFactory);
+		FutureTask<FactoryEntry<?>> task = new FutureTask<FactoryEntry<?>>(new Callable<FactoryEntry<?>>() {
+			public FactoryEntry<?> call() {
+				return entry;
+			}
+		});
+		task.run();
+		if (factoryCache.putIfAbsent(mixinBase, task, getRetention(mixinBase)) != null) {
+			return false;
+		}
+		entry.lastUsed = cacheClock.get();
+		factoryAdded(mixinBase);
+		return true;
+	}
+	
+	/**
+	 * How strongly to hold the factory for a mixin base
+	 */
+	private FactoryCachePolicy.Retention getRetention(Class<?> mixinBase) {
+		if (cachePolicy.getRetention() == FactoryCachePolicy.Retention.STRONG) {
+			MixinBase annotation = mixinBase.getAnnotation(MixinBase.class);
+			if (annotation != null && BaseLoaderMixer.class.isAssignableFrom(annotation.mixerClass())) {
+				return FactoryCachePolicy.Retention.SOFT;
+			}
+		}
+		return cachePolicy.getRetention();
 	}
-	private <T> void putFactoryCache(Class<T> mixinClass, Factory<? extends T> factory) {
-		factoryCache.put(mixinClass, factory);
+	
+	/**
+	 * Called after a factory has been added to the cache, to advance the clock and evict other
+	 * factories if the cache is now too big
+	 */
+	private void factoryAdded(Class<?> mixinBase) {
+		cacheClock.incrementAndGet();
+		factoriesCollected.add(factoryCache.expungeCollectedValues());
+		if (!cachePolicy.isBounded()) {
+			return;
+		}
+		int excess = factoryCache.size() - cachePolicy.getMaximumSize();
+		if (excess <= 0) {
+			return;
+		}
+		// the new factory is never evicted, or a least frequently used cache could never add one
+		List<EvictionCandidate> candidates = new ArrayList<EvictionCandidate>();
+		for (Map.Entry<Class<?>, FutureTask<FactoryEntry<?>>> cached: factoryCache.snapshot().entrySet()) {
+			FutureTask<FactoryEntry<?>> task = cached.getValue();
+			if (cached.getKey() == mixinBase || !task.isDone()) {
+				continue;
+			}
+			FactoryEntry<?> entry;
+			try {
+				entry = task.get();
+			} catch (Exception e) {
+				// failed, and will be removed by the thread that is waiting for it
+				continue;
+			}
+			long rank = cachePolicy.getEviction() == FactoryCachePolicy.Eviction.LEAST_RECENTLY_USED
+					? entry.lastUsed : entry.instancesCreated.sum();
+			candidates.add(new EvictionCandidate(cached.getKey(), task, entry, rank));
+		}
+		Collections.sort(candidates);
+		for (int i=0; i<excess && i<candidates.size(); i++) {
+			EvictionCandidate candidate = candidates.get(i);
+			if (factoryCache.remove(candidate.mixinBase, candidate.task)) {
+				factoryCacheEvictions.increment();
+				for (FactoryEvictionListener listener: evictionListeners) {
+					try {
+						listener.factoryEvicted(candidate.mixinBase, candidate.entry.factory);
+					} catch (RuntimeException e) {
+						// ignored, as documented by FactoryEvictionListener
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * A cached factory that could be evicted, ordered with the first to evict first
+	 */
+	private static final class EvictionCandidate implements Comparable<EvictionCandidate> {
+		
+		final Class<?> mixinBase;
+		final FutureTask<FactoryEntry<?>> task;
+		final FactoryEntry<?> entry;
+		
+		// the time the factory was last used, or the number of instances it has created
+		private final long rank;
+		
+		EvictionCandidate(Class<?> mixinBase, FutureTask<FactoryEntry<?>> task, FactoryEntry<?> entry, long rank) {
+			this.mixinBase = mixinBase;
+			this.task = task;
+			this.entry = entry;
+			this.rank = rank;
+		}
+		
+		public int compareTo(EvictionCandidate other) {
+			return rank < other.rank ? -1 : rank == other.rank ? 0 : 1;
+		}
+	}
+	
+	/**
+	 * Validate a mixin base class, and create its factory and constructors. Only ever called
+	 * once per class by {@link #getFactoryEntry(Class)}.
+	 */
+	private <C> FactoryEntry<C> createFactoryEntry(Class<C> mixinBase) {
+		MixinUtils.validateMixinBase(mixinBase);
+		return createFactoryEntry(mixinBase, createFactory(mixinBase));
+	}
+	
+	private <C> FactoryEntry<C> createFactoryEntry(Class<C> mixinBase, Factory<? extends C> factory) {
+		int maxArgCount = -1;
+		for (Constructor<?> constructor: mixinBase.getDeclaredConstructors()) {
+			maxArgCount = Math.max(maxArgCount, constructor.getParameterTypes().length);
+		}
+		// safe because the array only holds constructors from the factory for mixinBase
+		@SuppressWarnings("unchecked")
+		ConstructorInvoker<? extends C>[] constructors = (ConstructorInvoker<? extends C>[]) new ConstructorInvoker<?>[maxArgCount + 1];
+		for (int argCount=0; argCount<=maxArgCount; argCount++) {
+			try {
+				Class<?>[] argTypes = MixinUtils.getConstructorArgTypes(mixinBase, argCount);
+				constructors[argCount] = AbstractFactory.adapt(factory).getConstructor(argTypes);
+			} catch (MixinException e) {
+				// no usable constructor with this many arguments, FactoryEntry.getConstructor will report it
+			}
+		}
+		return new FactoryEntry<C>(mixinBase, factory, constructors);
 	}
 	
-	private <C> Factory<? extends C> getFactory(Class<C> mixinBase) {
-		Factory<? extends C> factory = getFactoryCache(mixinBase);
-		if (factory == null) {
-			
-			MixinBase annotation = getMixinBaseAnnotation(mixinBase);
-			
-			List<Mixin<C>> mixins = new ArrayList<Mixin<C>>();
-			
-			// for each parameterised interface implemented by the type
-			for (Class<?> mixinType: getInterfaces(mixinBase)) {
+	/**
+	 * Resolve the mixins for a mixin base class and have its {@link Mixer} generate a factory.
+	 */
+	private <C> Factory<? extends C> createFactory(Class<C> mixinBase) {
+		MixinBase annotation = getMixinBaseAnnotation(mixinBase);
+		List<Mixin<C>> mixins = resolveMixins(mixinBase);
+		
+		// get mixed instance according to the engine annotation parameter
+		Mixer mixer;
+		try {
+			mixer = getSharedInstance(annotation.mixerClass());
+		} catch (Exception e) {
+			throw new MixinException("Can't load mixer class '" + annotation.mixerClass() + "'", e);
+		}
+		
+		return mixer.getFactory(mixinBase, mixins);
+	}
+	
+	/**
+	 * Find the implementation of each mixin type of a mixin base class, from the index written
+	 * by {@link MixinBaseProcessor} if it has been indexed, or otherwise by reflection
+	 */
+	private <C> List<Mixin<C>> resolveMixins(Class<C> mixinBase) {
+		getMixinBaseAnnotation(mixinBase);
+		
+		List<Mixin<C>> indexedMixins = MixinIndex.getMixins(mixinBase);
+		if (indexedMixins != null) {
+			return indexedMixins;
+		}
+		
+		List<Mixin<C>> mixins = new ArrayList<Mixin<C>>();
+		
+		// for each parameterised interface implemented by the type or one of its superclasses, in the
+		// order of getInterfaces(Class)
+		for (Class<?> declaringClass = mixinBase; declaringClass != null; declaringClass = declaringClass.getSuperclass()) {
+			for (Class<?> mixinType: declaringClass.getInterfaces()) {
 				
 				Class<?> mixinImpl = null;
 				
@@ -105,38 +732,190 @@ public class MixinSupport implements MixinEngine {
 				}
 				// else if sourceClass is an implementationSource, use that to look up an implementation
 				else if (ImplementationSource.class.isAssignableFrom(sourceClass)) {
-					ImplementationSource source;
-					try {
-						source = (ImplementationSource) sourceClass.newInstance();
-					} catch (Exception e) {
-						throw new MixinException("Can't resolve mixin implementation source", e);
-					}
-
-					// safe cast because mixinType is an interface declared on mixinBase, which is a
-					// Class<X>, so mixinBase can't not be a Class<? extends X>
-					mixinImpl = source.getImplementation(mixinType, mixinBase);
-					
+					mixinImpl = getImplementation(sourceClass.asSubclass(ImplementationSource.class), mixinType, declaringClass);
 				}
 				if (mixinImpl != null) {
 					mixins.add(new Mixin<C>(mixinType, mixinImpl, mixinBase));
 				}
 			}
-			
-			// get mixed instance according to the engine annotation parameter
-			Mixer mixer;
-			try {
-				mixer = annotation.mixerClass().newInstance();
-			} catch (Exception e) {
-				throw new MixinException("Can't load mixer class '" + annotation.mixerClass() + "'", e);
+		}
+		return mixins;
+	}
+	
+	/**
+	 * Return the implementation of a mixin type from an {@link ImplementationSource}, remembering
+	 * the result for every mixin base that inherits the mixin type from the same declaring class
+	 */
+	private Class<?> getImplementation(Class<? extends ImplementationSource> sourceClass, Class<?> mixinType, Class<?> declaringClass) {
+		ConcurrentMap<ResolutionKey, Class<?>> resolutions = resolutionCache.get(declaringClass);
+		if (resolutions == null) {
+			resolutions = new ConcurrentHashMap<ResolutionKey, Class<?>>();
+			ConcurrentMap<ResolutionKey, Class<?>> existing = resolutionCache.putIfAbsent(declaringClass, resolutions,
+					FactoryCachePolicy.Retention.SOFT);
+			if (existing != null) {
+				resolutions = existing;
+			}
+		}
+		ResolutionKey key = new ResolutionKey(sourceClass, mixinType);
+		Class<?> mixinImpl = resolutions.get(key);
+		if (mixinImpl != null) {
+			resolutionCounter.hit();
+			return mixinImpl;
+		}
+		resolutionCounter.miss();
+		ImplementationSource source;
+		try {
+			source = getSharedInstance(sourceClass);
+		} catch (Exception e) {
+			throw new MixinException("Can't resolve mixin implementation source", e);
+		}
+		mixinImpl = source.getImplementation(mixinType, declaringClass);
+		if (mixinImpl != null) {
+			resolutions.putIfAbsent(key, mixinImpl);
+		}
+		return mixinImpl;
+	}
+	
+	/**
+	 * Return the one instance of a {@link Mixer} or {@link ImplementationSource} class, creating it
+	 * on first use
+	 */
+	private <T> T getSharedInstance(Class<T> klass) throws Exception {
+		Object instance = sharedInstances.get(klass);
+		if (instance != null) {
+			instanceCounter.hit();
+			return klass.cast(instance);
+		}
+		instanceCounter.miss();
+		instance = klass.getDeclaredConstructor().newInstance();
+		Object existing = sharedInstances.putIfAbsent(klass, instance, FactoryCachePolicy.Retention.SOFT);
+		return klass.cast(existing == null ? instance : existing);
+	}
+	
+	/**
+	 * Identifies the result of an {@link ImplementationSource#getImplementation(Class, Class)} call
+	 * for a declaring class
+	 */
+	private static final class ResolutionKey {
+		
+		private final Class<?> sourceClass;
+		private final Class<?> mixinType;
+		
+		ResolutionKey(Class<?> sourceClass, Class<?> mixinType) {
+			this.sourceClass = sourceClass;
+			this.mixinType = mixinType;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ResolutionKey)) {
+				return false;
+			}
+			ResolutionKey other = (ResolutionKey) obj;
+			return sourceClass.equals(other.sourceClass) && mixinType.equals(other.mixinType);
+		}
+		
+		@Override
+		public int hashCode() {
+			return sourceClass.hashCode() * 31 + mixinType.hashCode();
+		}
+	}
+	
+
+	/**
+	 * <p>The cached result of mixing a mixin base class: its factory, and the constructors that
+	 * {@link MixinSupport#newInstanceOf(Class, Object[])} chooses between by argument count.
+	 */
+	private static class FactoryEntry<T> {
+		
+		private final Class<T> mixinBase;
+		
+		final Factory<? extends T> factory;
+		
+		final StripedCounter instancesCreated = new StripedCounter();
+		
+		// the value of MixinSupport.cacheClock when this was last used, written without
+		// synchronisation because least recently used eviction doesn't need to be exact
+		long lastUsed;
+		
+		// constructorsByArgCount[n] invokes the only constructor that takes n arguments, or is null
+		// if there isn't exactly one
+		private final ConstructorInvoker<? extends T>[] constructorsByArgCount;
+		
+		FactoryEntry(Class<T> mixinBase, Factory<? extends T> factory, ConstructorInvoker<? extends T>[] constructorsByArgCount) {
+			this.mixinBase = mixinBase;
+			this.factory = factory;
+			this.constructorsByArgCount = constructorsByArgCount;
+		}
+		
+		ConstructorInvoker<? extends T> getConstructor(int argCount) {
+			if (argCount < constructorsByArgCount.length && constructorsByArgCount[argCount] != null) {
+				return constructorsByArgCount[argCount];
 			}
-			
-			factory = mixer.getFactory(mixinBase, mixins);
-			
-			putFactoryCache(mixinBase, factory);
+			// only reached if there is no usable constructor, so let the lookup throw the appropriate error
+			return AbstractFactory.adapt(factory).getConstructor(MixinUtils.getConstructorArgTypes(mixinBase, argCount));
 		}
-		return factory;
 	}
+
+	private static final ThreadFactory PREPARATION_THREAD_FACTORY = new ThreadFactory() {
+		private final AtomicInteger threadCount = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "mixin4j-prepare-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
 	
+	/**
+	 * <p>The result of {@link MixinSupport#prepareAsync(Collection, Executor)}, which is done when
+	 * every class has been prepared or has failed.
+	 */
+	private static class PreparationFuture implements Future<PreparationReport> {
+		
+		final PreparationReport report = new PreparationReport();
+		
+		private final AtomicInteger remainingClasses;
+		private final CountDownLatch done = new CountDownLatch(1);
+		
+		PreparationFuture(int classCount) {
+			remainingClasses = new AtomicInteger(classCount);
+			if (classCount == 0) {
+				report.finished();
+				done.countDown();
+			}
+		}
+		
+		void classFinished() {
+			if (remainingClasses.decrementAndGet() == 0) {
+				report.finished();
+				done.countDown();
+			}
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		public boolean isCancelled() {
+			return false;
+		}
+
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		public PreparationReport get() throws InterruptedException {
+			done.await();
+			return report;
+		}
+
+		public PreparationReport get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return report;
+		}
+	}
 
 	/**
 	 * Check that a mixin base class is valid and return its {@link MixinBase} annotation.
@@ -21,4 +21,15 @@ public @interface MixinType {
 	 * mixin implementation class
 	 */
 	public Class<?> implementation();
+	
+	/**
+	 * <p>If true, the mixin implementation is not created along with the mixed object, but the first
+	 * time one of its methods is called. This saves memory when many mixed objects are created
+	 * but few of them use the mixin. {@link MixinAware#setMixinBase(Object)} is called when the
+	 * implementation is created.
+	 * 
+	 * <p>This is supported by {@link ClassGeneratingMixer} and {@link BytecodeGeneratingMixer}. Other
+	 * mixers may create the implementation up front anyway.
+	 */
+	public boolean lazy() default false;
 }
\ No newline at end of file
@@ -1,9 +1,19 @@
 package com.berniecode.mixin4j;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class MixinUtils {
 	
@@ -34,10 +44,51 @@ public class MixinUtils {
 				+ " has no constructors with exactly " + length + " parameters");
 	}
 
+	/**
+	 * <p>Return the wrapper class for a primitive type, e.g. Integer.class for int.class
+	 * 
+	 * @param primitiveType a primitive type other than void
+	 */
+	public static Class<?> getWrapperType(Class<?> primitiveType) {
+		if (primitiveType == Boolean.TYPE) return Boolean.class;
+		if (primitiveType == Byte.TYPE) return Byte.class;
+		if (primitiveType == Character.TYPE) return Character.class;
+		if (primitiveType == Short.TYPE) return Short.class;
+		if (primitiveType == Integer.TYPE) return Integer.class;
+		if (primitiveType == Long.TYPE) return Long.class;
+		if (primitiveType == Float.TYPE) return Float.class;
+		if (primitiveType == Double.TYPE) return Double.class;
+		throw new IllegalArgumentException(primitiveType + " is not a primitive value type");
+	}
+
+	/**
+	 * <p>Return the method of a {@link Stateless} mixin implementation that should be called for a
+	 * mixin type method: an overload taking the mixed object as an extra first parameter if there
+	 * is one, otherwise the mixin type method itself.
+	 * 
+	 * @see Stateless
+	 */
+	public static Method getStatelessMethod(Class<?> implementation, Method typeMethod, Class<?> mixinBase) {
+		Class<?>[] typeParameters = typeMethod.getParameterTypes();
+		for (Method method: implementation.getMethods()) {
+			Class<?>[] parameters = method.getParameterTypes();
+			if (method.getName().equals(typeMethod.getName())
+					&& parameters.length == typeParameters.length + 1
+					&& parameters[0].isAssignableFrom(mixinBase)
+					&& method.getReturnType().equals(typeMethod.getReturnType())
+					&& Arrays.equals(Arrays.copyOfRange(parameters, 1, parameters.length), typeParameters)) {
+				return method;
+			}
+		}
+		return typeMethod;
+	}
+
 	/**
 	 * <p>part of the {@link Mixer} contract is to correctly handle the {@link MixinAware} interface.
 	 * 
-	 * <p>This method implements the necessary processing.
+	 * <p>This method implements the necessary processing. It checks the constraint by reflection
+	 * each time, so mixers should instead call {@link MixinAware#setMixinBase(Object)} directly,
+	 * relying on the check made when the {@link Mixin} was created.
 	 * 
 	 * @param implementation the newly created instance of a mixin implementation class
 	 * @param newMixedObject the instance of the mixin base class that the implementation is to be mixed into
@@ -48,46 +99,241 @@ public class MixinUtils {
 		if (!(implementation instanceof MixinAware)) {
 			return;
 		}
-		// get the mixin constraint type from the implementation, e.g. if the implementation
-		// implements MixinAware<Iterable<String>> then the constraint type is Iterable<String>
-		for (Type gInterface: implementation.getClass().getGenericInterfaces()) {
-			if (gInterface instanceof ParameterizedType) {
-				ParameterizedType pInterface = (ParameterizedType) gInterface;
-				if (pInterface.getRawType().equals(MixinAware.class)) {
-					Type t = pInterface.getActualTypeArguments()[0];
-					if (!classAssignableToType(newMixedObject, t)) {
-						throw new MixinException("Mixin-aware implementation class "
-								+ implementation.getClass().getCanonicalName()
-								+ " can't be mixed with base class "
-								+ mixinBase.getCanonicalName()
-								+ " because the base class does not match the type "
-								+ t);
-					}
-				}
-			}
-		}
-		
+		checkMixinAwareConstraint(implementation.getClass(), mixinBase);
+		// safe because the implementation has been shown to accept the mixin base
+		@SuppressWarnings("unchecked")
 		MixinAware<Object> mixinAware = (MixinAware<Object>) implementation;
 		mixinAware.setMixinBase(newMixedObject);
 	}
 
 	/**
-	 * Check whether a class matches the type specified. For example, if the type is
+	 * <p>Check that a mixin base matches the constraint of a {@link MixinAware} implementation,
+	 * which is the type argument of MixinAware, e.g. if the implementation implements
+	 * {@code MixinAware<Iterable<String>>} then the constraint type is {@code Iterable<String>}.
+	 * Does nothing if the implementation isn't MixinAware.
+	 * 
+	 * @throws MixinException if the mixin base doesn't match
+	 */
+	public static void checkMixinAwareConstraint(Class<?> implementation, Class<?> mixinBase) {
+		if (!MixinAware.class.isAssignableFrom(implementation)) {
+			return;
+		}
+		Type[] typeArguments = getTypeArguments(implementation, MixinAware.class);
+		if (typeArguments == null) {
+			// implements the raw type, so there is no constraint
+			return;
+		}
+		if (!classAssignableToType(mixinBase, typeArguments[0])) {
+			throw new MixinException("Mixin-aware implementation class "
+					+ implementation.getCanonicalName()
+					+ " can't be mixed with base class "
+					+ mixinBase.getCanonicalName()
+					+ " because the base class does not match the type "
+					+ typeArguments[0]);
+		}
+	}
+
+	/**
+	 * <p>Check whether a class matches the type specified. For example, if the type is
 	 * {@code Iterable<? extends InputStream>} and the class implements the interface
-	 * {@code Iterable<? extends BufferedInputStream>} then method would return true.
+	 * {@code Iterable<BufferedInputStream>} then method would return true, but if it implements
+	 * {@code Iterable<String>} it would return false.
 	 * 
-	 * @param testClass
-	 * @param targetType
+	 * <p>Where the class doesn't say enough to tell, for example because it implements a raw type
+	 * or a type argument is a type variable, the class is assumed to match, as the compiler would
+	 * with an unchecked conversion.
+	 * 
+	 * @param testClass the class to test
+	 * @param targetType the type that it should be assignable to
 	 */
-	public static boolean classAssignableToType(Object testClass, Type targetType) {
-		//TODO implement this (currently it just returns true).
-		// If a List<Integer> is passed into the setMixinBase method of a MixinAware<Iterable<String>>,
-		// it will fail immediately with a ClassCastException since the outer types, List and Iterable,
-		// are incompatible. However, if a List<Integer> is passed into the setMixinBase method of a
-		// MixinAware<List<String>>, the initial call will succeed, and the program will fail later
-		// when it tries to use what it thinks is a string, and turns out to be an integer.
+	public static boolean classAssignableToType(Class<?> testClass, Type targetType) {
+		return isAssignable(testClass, targetType);
+	}
+
+	/**
+	 * <p>As {@link #classAssignableToType(Class, Type)}, for the class of an object, or for a class
+	 * passed as an Object.
+	 * 
+	 * @param testObject the object whose class to test, or the class itself
+	 * @param targetType the type that it should be assignable to
+	 * @deprecated pass the class to {@link #classAssignableToType(Class, Type)} instead
+	 */
+	@Deprecated
+	public static boolean classAssignableToType(Object testObject, Type targetType) {
+		Class<?> testClass = testObject instanceof Class ? (Class<?>) testObject : testObject.getClass();
+		return classAssignableToType(testClass, targetType);
+	}
+
+	private static boolean isAssignable(Type from, Type to) {
+		if (from instanceof WildcardType) {
+			from = ((WildcardType) from).getUpperBounds()[0];
+		}
+		if (from instanceof TypeVariable) {
+			// could be anything within its bounds
+			return true;
+		}
+		if (to instanceof Class) {
+			return ((Class<?>) to).isAssignableFrom(getRawType(from));
+		}
+		if (to instanceof ParameterizedType) {
+			ParameterizedType target = (ParameterizedType) to;
+			Class<?> targetClass = getRawType(target);
+			if (!targetClass.isAssignableFrom(getRawType(from))) {
+				return false;
+			}
+			Type[] actualArguments = getTypeArguments(from, targetClass);
+			if (actualArguments == null) {
+				return true;
+			}
+			Type[] targetArguments = target.getActualTypeArguments();
+			for (int i=0; i<targetArguments.length; i++) {
+				if (!containsTypeArgument(targetArguments[i], actualArguments[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (to instanceof WildcardType) {
+			for (Type upperBound: ((WildcardType) to).getUpperBounds()) {
+				if (!isAssignable(from, upperBound)) {
+					return false;
+				}
+			}
+			for (Type lowerBound: ((WildcardType) to).getLowerBounds()) {
+				if (!isAssignable(lowerBound, from)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if (to instanceof GenericArrayType) {
+			Class<?> fromClass = getRawType(from);
+			if (!fromClass.isArray()) {
+				return false;
+			}
+			Type fromComponent = from instanceof GenericArrayType
+					? ((GenericArrayType) from).getGenericComponentType() : fromClass.getComponentType();
+			return isAssignable(fromComponent, ((GenericArrayType) to).getGenericComponentType());
+		}
+		// a type variable, which could be anything within its bounds
 		return true;
 	}
+
+	/**
+	 * Whether a type argument of a target type allows the type argument of an actual type in the
+	 * same position, e.g. {@code ? extends Number} allows {@code Integer}, but {@code Number} only
+	 * allows {@code Number}
+	 */
+	private static boolean containsTypeArgument(Type target, Type actual) {
+		if (target instanceof TypeVariable || actual instanceof TypeVariable) {
+			return true;
+		}
+		if (target instanceof WildcardType) {
+			WildcardType wildcard = (WildcardType) target;
+			for (Type upperBound: wildcard.getUpperBounds()) {
+				if (!isAssignable(actual, upperBound)) {
+					return false;
+				}
+			}
+			for (Type lowerBound: wildcard.getLowerBounds()) {
+				if (!(actual instanceof WildcardType)) {
+					if (!isAssignable(lowerBound, actual)) {
+						return false;
+					}
+				} else {
+					Type[] actualLowerBounds = ((WildcardType) actual).getLowerBounds();
+					if (actualLowerBounds.length == 0 || !isAssignable(lowerBound, actualLowerBounds[0])) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		return typesEqual(target, actual);
+	}
+
+	private static boolean typesEqual(Type a, Type b) {
+		if (a instanceof TypeVariable || b instanceof TypeVariable) {
+			return true;
+		}
+		if (a instanceof ParameterizedType && b instanceof ParameterizedType) {
+			ParameterizedType pa = (ParameterizedType) a;
+			ParameterizedType pb = (ParameterizedType) b;
+			if (!pa.getRawType().equals(pb.getRawType())) {
+				return false;
+			}
+			Type[] aArguments = pa.getActualTypeArguments();
+			Type[] bArguments = pb.getActualTypeArguments();
+			for (int i=0; i<aArguments.length; i++) {
+				if (!typesEqual(aArguments[i], bArguments[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return a.equals(b);
+	}
+
+	/**
+	 * Return the type arguments of a generic class or interface as a subtype specifies them, e.g.
+	 * {@code [String]} for {@code Iterable} and {@code ArrayList<String>}. Arguments that the subtype
+	 * leaves unspecified are returned as type variables. Returns null if the subtype uses the raw type.
+	 */
+	static Type[] getTypeArguments(Type subtype, Class<?> target) {
+		return getTypeArguments(subtype, target, new HashMap<TypeVariable<?>, Type>());
+	}
+
+	private static Type[] getTypeArguments(Type subtype, Class<?> target, Map<TypeVariable<?>, Type> bindings) {
+		Class<?> subclass = getRawType(subtype);
+		if (!target.isAssignableFrom(subclass)) {
+			return null;
+		}
+		// bind the subclass's type variables to the arguments they were given
+		Map<TypeVariable<?>, Type> subclassBindings = new HashMap<TypeVariable<?>, Type>();
+		Type[] arguments = null;
+		if (subtype instanceof ParameterizedType) {
+			arguments = ((ParameterizedType) subtype).getActualTypeArguments().clone();
+			TypeVariable<?>[] variables = subclass.getTypeParameters();
+			for (int i=0; i<arguments.length; i++) {
+				if (bindings.containsKey(arguments[i])) {
+					arguments[i] = bindings.get(arguments[i]);
+				}
+				subclassBindings.put(variables[i], arguments[i]);
+			}
+		}
+		if (subclass == target) {
+			return arguments;
+		}
+		List<Type> supertypes = new ArrayList<Type>(Arrays.asList(subclass.getGenericInterfaces()));
+		if (subclass.getGenericSuperclass() != null) {
+			supertypes.add(subclass.getGenericSuperclass());
+		}
+		for (Type supertype: supertypes) {
+			if (target.isAssignableFrom(getRawType(supertype))) {
+				return getTypeArguments(supertype, target, subclassBindings);
+			}
+		}
+		return null;
+	}
+
+	private static Class<?> getRawType(Type type) {
+		if (type instanceof Class) {
+			return (Class<?>) type;
+		}
+		if (type instanceof ParameterizedType) {
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		}
+		if (type instanceof GenericArrayType) {
+			return Array.newInstance(getRawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+		}
+		if (type instanceof TypeVariable) {
+			return getRawType(((TypeVariable<?>) type).getBounds()[0]);
+		}
+		if (type instanceof WildcardType) {
+			return getRawType(((WildcardType) type).getUpperBounds()[0]);
+		}
+		return Object.class;
+	}
 	
 	/**
 	 * Check if a Class object represents a valid mixin base class.
@@ -0,0 +1,42 @@
+package com.berniecode.mixin4j;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Marks a mixed class that was generated at compile time by {@link MixinBaseProcessor}, and
+ * records the mixins that it applies, and how it applies them.
+ * 
+ * <p>{@link ClassGeneratingMixer} uses a precompiled class instead of generating one at runtime
+ * if its mixins are the same as the ones being applied.
+ * 
+ * @author Bernard Sumption
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface PrecompiledMixins {
+	
+	/**
+	 * The mixin type interfaces, in the order that they were applied
+	 */
+	public Class<?>[] mixinTypes();
+	
+	/**
+	 * The mixin implementation classes, at the same index as their mixin types
+	 */
+	public Class<?>[] mixinImplementations();
+	
+	/**
+	 * Whether each mixin is created lazily, at the same index as its mixin type. Missing values,
+	 * for classes compiled before this was recorded, are false.
+	 */
+	public boolean[] lazyMixins() default {};
+	
+	/**
+	 * Whether each mixin is {@link Stateless}, at the same index as its mixin type. Missing values,
+	 * for classes compiled before this was recorded, are false.
+	 */
+	public boolean[] statelessMixins() default {};
+}
@@ -0,0 +1,95 @@
+package com.berniecode.mixin4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>The result of preparing mixin base classes with {@link MixinSupport#prepare(java.util.Collection)}:
+ * how long each class took, and which classes could not be prepared and why.
+ *
+ * <p>Times are measured from when a class's preparation starts on its worker thread, so they
+ * don't include time spent waiting for a free thread. A class that had already been prepared
+ * takes almost no time.
+ *
+ * @author Bernard Sumption
+ */
+public class PreparationReport {
+
+	private final long startTime = System.nanoTime();
+	private volatile long endTime;
+
+	private final Map<Class<?>, Long> preparationTimes = new ConcurrentHashMap<Class<?>, Long>();
+	private final Map<Class<?>, Throwable> failures = new ConcurrentHashMap<Class<?>, Throwable>();
+
+	PreparationReport() {
+	}
+
+	void prepared(Class<?> mixinBase, long nanos) {
+		preparationTimes.put(mixinBase, nanos);
+	}
+
+	void failed(Class<?> mixinBase, long nanos, Throwable cause) {
+		preparationTimes.put(mixinBase, nanos);
+		failures.put(mixinBase, cause);
+	}
+
+	void finished() {
+		endTime = System.nanoTime();
+	}
+
+	/**
+	 * @return the time in nanoseconds that it took to prepare each class, including ones that failed
+	 */
+	public Map<Class<?>, Long> getPreparationTimes() {
+		return Collections.unmodifiableMap(new HashMap<Class<?>, Long>(preparationTimes));
+	}
+
+	/**
+	 * @return the exception thrown while preparing each class that could not be prepared
+	 */
+	public Map<Class<?>, Throwable> getFailures() {
+		return Collections.unmodifiableMap(new HashMap<Class<?>, Throwable>(failures));
+	}
+
+	/**
+	 * @return true if every class was prepared
+	 */
+	public boolean isSuccessful() {
+		return failures.isEmpty();
+	}
+
+	/**
+	 * @return the time in nanoseconds from the start of preparation until the last class was prepared
+	 */
+	public long getElapsedTime() {
+		return endTime - startTime;
+	}
+
+	/**
+	 * A table of preparation times, slowest first
+	 */
+	@Override
+	public String toString() {
+		List<Map.Entry<Class<?>, Long>> entries = new ArrayList<Map.Entry<Class<?>, Long>>(preparationTimes.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<Class<?>, Long>>() {
+			public int compare(Map.Entry<Class<?>, Long> e1, Map.Entry<Class<?>, Long> e2) {
+				return e2.getValue().compareTo(e1.getValue());
+			}
+		});
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Prepared %d mixin base classes in %.1f ms, %d failed%n",
+				entries.size(), getElapsedTime() / 1e6, failures.size()));
+		for (Map.Entry<Class<?>, Long> entry: entries) {
+			Throwable failure = failures.get(entry.getKey());
+			sb.append(String.format("%10.1f ms  %s%s%n", entry.getValue() / 1e6, entry.getKey().getName(),
+					failure == null ? "" : "  FAILED: " + failure));
+		}
+		return sb.toString();
+	}
+
+}
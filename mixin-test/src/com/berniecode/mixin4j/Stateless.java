@@ -0,0 +1,35 @@
+package com.berniecode.mixin4j;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Marks a mixin implementation class that keeps no per-instance state, so that one instance
+ * can be shared by every object of a mixed class instead of creating one per object.
+ * 
+ * <p>Because the instance is shared, a stateless implementation can't be {@link MixinAware}.
+ * Instead, for any method of the mixin type it may declare a public overload that takes the
+ * mixed object as an extra first parameter, and that overload will be called instead:
+ * 
+ * <pre>{@code
+ * @Stateless
+ * public class DescribableImpl implements Describable {
+ *     public String describe() {
+ *         throw new UnsupportedOperationException(); // never called, see below
+ *     }
+ *     public String describe(Object mixinBase) {
+ *         return "A " + mixinBase.getClass().getSimpleName();
+ *     }
+ * }
+ * }</pre>
+ * 
+ * <p>The first parameter's type must be a supertype of the mixin base class.
+ * 
+ * @author Bernard Sumption
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Stateless {
+}
@@ -0,0 +1,544 @@
+package com.berniecode.mixin4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.cglib.asm.MethodVisitor;
+import net.sf.cglib.asm.Opcodes;
+import net.sf.cglib.asm.Type;
+
+/**
+ * <p>Prepares a class file compiled for Java 9 or later to be read by the version of ASM bundled with
+ * CGLib, which can't read the invokedynamic instruction or the constant pool entries added with it.
+ * From Java 9, javac compiles string concatenation to invokedynamic calls to
+ * <code>java.lang.invoke.StringConcatFactory</code>, so almost every class has them.
+ *
+ * <p>Each of those call sites is replaced with a call to a static method of a placeholder class,
+ * see {@link #isPlaceholder(String)}, that has the same descriptor and names the bootstrap method of
+ * the call site. The bytecode that reads the class must replace those calls by calling
+ * {@link #concatenate(MethodVisitor, String, String)}, as the placeholder class doesn't exist.
+ *
+ * <p>Class files with any other invokedynamic call sites, such as those that create lambdas, or
+ * other constants that the bundled ASM can't read, are not supported.
+ *
+ * @author Bernard Sumption
+ */
+class StringConcatenationRewriter implements Opcodes {
+
+	/**
+	 * The internal name of the placeholder classes, followed by the index of a bootstrap method
+	 */
+	private static final String PLACEHOLDER = "com/berniecode/mixin4j/StringConcatenation$";
+
+	private static final String STRING_CONCAT_FACTORY = "java/lang/invoke/StringConcatFactory";
+
+	// constant pool tags, see the JVM specification
+	private static final int UTF8 = 1;
+	private static final int INTEGER = 3;
+	private static final int FLOAT = 4;
+	private static final int LONG = 5;
+	private static final int DOUBLE = 6;
+	private static final int CLASS = 7;
+	private static final int STRING = 8;
+	private static final int FIELD_REF = 9;
+	private static final int METHOD_REF = 10;
+	private static final int INTERFACE_METHOD_REF = 11;
+	private static final int NAME_AND_TYPE = 12;
+	private static final int METHOD_HANDLE = 15;
+	private static final int METHOD_TYPE = 16;
+	private static final int DYNAMIC = 17;
+	private static final int INVOKE_DYNAMIC = 18;
+	private static final int MODULE = 19;
+	private static final int PACKAGE = 20;
+
+	// opcodes that the bundled ASM doesn't define
+	private static final int LDC_W = 19;
+	private static final int LDC2_W = 20;
+	private static final int INVOKEDYNAMIC = 186;
+	private static final int WIDE = 196;
+	private static final int GOTO_W = 200;
+	private static final int JSR_W = 201;
+
+	// the characters of a StringConcatFactory recipe that stand for an argument or a constant
+	private static final char ARGUMENT = '\u0001';
+	private static final char CONSTANT = '\u0002';
+
+	private final byte[] bytecode;
+
+	// the recipe of each bootstrap method, or null if it is makeConcat, which has none
+	private final String[] recipes;
+
+	// the constants that each bootstrap method's recipe refers to
+	private final String[][] constants;
+
+	private StringConcatenationRewriter(byte[] bytecode, String[] recipes, String[][] constants) {
+		this.bytecode = bytecode;
+		this.recipes = recipes;
+		this.constants = constants;
+	}
+
+	/**
+	 * Return a rewriter holding a class file that the bundled ASM can read, which is the class file
+	 * itself if it has no string concatenation call sites, or null if the class file can't be read
+	 */
+	static StringConcatenationRewriter rewrite(byte[] bytecode) {
+		try {
+			return new ClassFile(bytecode).rewrite();
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// a malformed class file
+			return null;
+		}
+	}
+
+	/**
+	 * The class file, with string concatenation call sites replaced
+	 */
+	byte[] getBytecode() {
+		return bytecode;
+	}
+
+	/**
+	 * Whether a method call's owner is a placeholder for a string concatenation
+	 */
+	static boolean isPlaceholder(String owner) {
+		return owner.startsWith(PLACEHOLDER);
+	}
+
+	/**
+	 * Generate the string concatenation that a placeholder call stands for, which takes the same
+	 * arguments from the stack and leaves the same string. It converts each argument and constant to
+	 * a string in the same way as StringConcatFactory, and joins them from the last to the first so
+	 * that no local variables are needed.
+	 *
+	 * @return false if the call site doesn't match its recipe, in which case nothing is generated
+	 */
+	boolean concatenate(MethodVisitor mv, String owner, String descriptor) {
+		int bootstrap = Integer.parseInt(owner.substring(PLACEHOLDER.length()));
+		Type[] arguments = Type.getArgumentTypes(descriptor);
+		String recipe = recipes[bootstrap];
+		if (recipe == null) {
+			StringBuilder sb = new StringBuilder();
+			for (int i=0; i<arguments.length; i++) {
+				sb.append(ARGUMENT);
+			}
+			recipe = sb.toString();
+		}
+		// the recipe as a list of Types for arguments and Strings for the text between them
+		List<Object> parts = new ArrayList<Object>();
+		StringBuilder text = new StringBuilder();
+		int argument = 0;
+		int constant = 0;
+		for (int i=0; i<recipe.length(); i++) {
+			char c = recipe.charAt(i);
+			if (c == ARGUMENT) {
+				if (argument == arguments.length) {
+					return false;
+				}
+				if (text.length() > 0) {
+					parts.add(text.toString());
+					text.setLength(0);
+				}
+				parts.add(arguments[argument++]);
+			} else if (c == CONSTANT) {
+				if (constant == constants[bootstrap].length) {
+					return false;
+				}
+				text.append(constants[bootstrap][constant++]);
+			} else {
+				text.append(c);
+			}
+		}
+		if (text.length() > 0) {
+			parts.add(text.toString());
+		}
+		if (argument != arguments.length || !Type.getReturnType(descriptor).getDescriptor().equals("Ljava/lang/String;")) {
+			return false;
+		}
+
+		// the string so far is kept on top of the stack, above the arguments not yet used
+		boolean started = false;
+		for (int i=parts.size() - 1; i>=0; i--) {
+			Object part = parts.get(i);
+			if (part instanceof Type) {
+				Type type = (Type) part;
+				if (started) {
+					// bring the argument above the string so far
+					if (type.getSize() == 2) {
+						mv.visitInsn(DUP_X2);
+						mv.visitInsn(POP);
+					} else {
+						mv.visitInsn(SWAP);
+					}
+				}
+				mv.visitMethodInsn(INVOKESTATIC, "java/lang/String", "valueOf",
+						"(" + getValueOfParameter(type) + ")Ljava/lang/String;");
+			} else {
+				mv.visitLdcInsn(part);
+			}
+			if (started) {
+				mv.visitInsn(SWAP);
+				mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;");
+			}
+			started = true;
+		}
+		if (!started) {
+			mv.visitLdcInsn("");
+		}
+		return true;
+	}
+
+	/**
+	 * The parameter type of the String.valueOf overload that converts a value of a type as string
+	 * concatenation does
+	 */
+	private static String getValueOfParameter(Type type) {
+		switch (type.getSort()) {
+		case Type.BOOLEAN:
+			return "Z";
+		case Type.CHAR:
+			return "C";
+		case Type.BYTE: case Type.SHORT: case Type.INT:
+			return "I";
+		case Type.LONG:
+			return "J";
+		case Type.FLOAT:
+			return "F";
+		case Type.DOUBLE:
+			return "D";
+		default:
+			return "Ljava/lang/Object;";
+		}
+	}
+
+	/**
+	 * The parts of a class file that are read to rewrite it, see the JVM specification
+	 */
+	private static class ClassFile {
+
+		private final byte[] bytes;
+
+		// the offset and tag of each constant pool entry, by index
+		private final int[] offsets;
+		private final int[] tags;
+
+		// the offset of the first byte after the constant pool
+		private final int poolEnd;
+
+		ClassFile(byte[] bytes) {
+			this.bytes = bytes;
+			int count = readUnsignedShort(8);
+			offsets = new int[count];
+			tags = new int[count];
+			int offset = 10;
+			for (int i=1; i<count; i++) {
+				offsets[i] = offset;
+				tags[i] = bytes[offset] & 0xFF;
+				switch (tags[i]) {
+				case UTF8:
+					offset += 3 + readUnsignedShort(offset + 1);
+					break;
+				case INTEGER: case FLOAT: case FIELD_REF: case METHOD_REF: case INTERFACE_METHOD_REF: case NAME_AND_TYPE:
+				case DYNAMIC: case INVOKE_DYNAMIC:
+					offset += 5;
+					break;
+				case LONG: case DOUBLE:
+					// these take two entries
+					offset += 9;
+					i++;
+					break;
+				case METHOD_HANDLE:
+					offset += 4;
+					break;
+				case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE:
+					offset += 3;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown constant pool tag " + tags[i]);
+				}
+			}
+			poolEnd = offset;
+		}
+
+		StringConcatenationRewriter rewrite() throws IOException {
+			boolean hasCallSites = false;
+			boolean hasHandles = false;
+			for (int i=1; i<tags.length; i++) {
+				switch (tags[i]) {
+				case INVOKE_DYNAMIC:
+					hasCallSites = true;
+					break;
+				case METHOD_HANDLE: case METHOD_TYPE:
+					hasHandles = true;
+					break;
+				case DYNAMIC: case MODULE: case PACKAGE:
+					return null;
+				}
+			}
+			if (!hasCallSites) {
+				return hasHandles ? null : new StringConcatenationRewriter(bytes, new String[0], new String[0][]);
+			}
+
+			int bootstrapMethods = findBootstrapMethods();
+			if (bootstrapMethods == -1) {
+				return null;
+			}
+			int bootstrapCount = readUnsignedShort(bootstrapMethods);
+			String[] recipes = new String[bootstrapCount];
+			String[][] constants = new String[bootstrapCount][];
+			boolean[] concatenations = new boolean[bootstrapCount];
+			int offset = bootstrapMethods + 2;
+			for (int i=0; i<bootstrapCount; i++) {
+				int handle = readUnsignedShort(offset);
+				int argumentCount = readUnsignedShort(offset + 2);
+				int[] arguments = new int[argumentCount];
+				for (int j=0; j<argumentCount; j++) {
+					arguments[j] = readUnsignedShort(offset + 4 + j * 2);
+				}
+				offset += 4 + argumentCount * 2;
+				String name = getConcatFactoryMethod(handle);
+				if ("makeConcat".equals(name) && argumentCount == 0) {
+					constants[i] = new String[0];
+					concatenations[i] = true;
+				} else if ("makeConcatWithConstants".equals(name) && argumentCount > 0 && allStrings(arguments)) {
+					recipes[i] = readString(arguments[0]);
+					constants[i] = new String[argumentCount - 1];
+					for (int j=1; j<argumentCount; j++) {
+						constants[i][j - 1] = readString(arguments[j]);
+					}
+					concatenations[i] = true;
+				}
+			}
+
+			// replace each call site with a method reference to the placeholder for its bootstrap
+			// method, whose class entries are added to the end of the constant pool
+			ByteArrayOutputStream pool = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(pool);
+			int[] placeholders = new int[bootstrapCount];
+			List<Integer> placeholderOrder = new ArrayList<Integer>();
+			int count = tags.length;
+			for (int i=1; i<tags.length; i++) {
+				if (tags[i] == INVOKE_DYNAMIC) {
+					int bootstrap = readUnsignedShort(offsets[i] + 1);
+					if (bootstrap >= bootstrapCount || !concatenations[bootstrap]) {
+						return null;
+					}
+					if (placeholders[bootstrap] == 0) {
+						placeholders[bootstrap] = count;
+						placeholderOrder.add(bootstrap);
+						count += 2;
+					}
+				}
+			}
+			if (count > 0xFFFF) {
+				return null;
+			}
+			out.writeShort(count);
+			for (int i=1; i<tags.length; i++) {
+				switch (tags[i]) {
+				case INVOKE_DYNAMIC:
+					out.writeByte(METHOD_REF);
+					out.writeShort(placeholders[readUnsignedShort(offsets[i] + 1)]);
+					out.writeShort(readUnsignedShort(offsets[i] + 3));
+					break;
+				case METHOD_HANDLE: case METHOD_TYPE:
+					// no longer used, so replaced with an entry that the bundled ASM can read
+					out.writeByte(UTF8);
+					out.writeShort(0);
+					break;
+				case LONG: case DOUBLE:
+					out.write(bytes, offsets[i], 9);
+					i++;
+					break;
+				default:
+					int next = i + 1 < tags.length ? offsets[i + 1] : poolEnd;
+					out.write(bytes, offsets[i], next - offsets[i]);
+				}
+			}
+			for (int bootstrap: placeholderOrder) {
+				out.writeByte(CLASS);
+				out.writeShort(placeholders[bootstrap] + 1);
+				out.writeByte(UTF8);
+				out.writeUTF(PLACEHOLDER + bootstrap);
+			}
+
+			// replace each invokedynamic instruction with an invokestatic of the same method
+			// reference, followed by two nops to take up the rest of its five bytes
+			byte[] rest = new byte[bytes.length - poolEnd];
+			System.arraycopy(bytes, poolEnd, rest, 0, rest.length);
+			for (int code: findCode()) {
+				int length = readInt(code);
+				int pc = 0;
+				while (pc < length) {
+					int opcode = bytes[code + 4 + pc] & 0xFF;
+					if (opcode == INVOKEDYNAMIC) {
+						rest[code + 4 + pc - poolEnd] = (byte) INVOKESTATIC;
+					} else if (opcode == LDC || opcode == LDC_W) {
+						int constant = opcode == LDC ? bytes[code + 5 + pc] & 0xFF : readUnsignedShort(code + 5 + pc);
+						if (tags[constant] == METHOD_HANDLE || tags[constant] == METHOD_TYPE) {
+							// method handles and types are replaced, so can only be used by bootstrap methods
+							return null;
+						}
+					}
+					pc += getInstructionLength(code + 4, pc);
+				}
+			}
+
+			ByteArrayOutputStream result = new ByteArrayOutputStream();
+			result.write(bytes, 0, 8);
+			pool.writeTo(result);
+			result.write(rest);
+			return new StringConcatenationRewriter(result.toByteArray(), recipes, constants);
+		}
+
+		/**
+		 * Return the name of the StringConcatFactory method that a method handle refers to, or null
+		 * if it refers to something else
+		 */
+		private String getConcatFactoryMethod(int handle) throws IOException {
+			if (tags[handle] != METHOD_HANDLE) {
+				return null;
+			}
+			int method = readUnsignedShort(offsets[handle] + 2);
+			if (tags[method] != METHOD_REF) {
+				return null;
+			}
+			int owner = readUnsignedShort(offsets[method] + 1);
+			int nameAndType = readUnsignedShort(offsets[method] + 3);
+			if (!STRING_CONCAT_FACTORY.equals(readUtf8(readUnsignedShort(offsets[owner] + 1)))) {
+				return null;
+			}
+			return readUtf8(readUnsignedShort(offsets[nameAndType] + 1));
+		}
+
+		private boolean allStrings(int[] entries) {
+			for (int entry: entries) {
+				if (tags[entry] != STRING) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private String readString(int index) throws IOException {
+			return readUtf8(readUnsignedShort(offsets[index] + 1));
+		}
+
+		private String readUtf8(int index) throws IOException {
+			// the entry after its tag is in the format that readUTF reads
+			return new DataInputStream(new ByteArrayInputStream(bytes, offsets[index] + 1,
+					bytes.length - offsets[index] - 1)).readUTF();
+		}
+
+		/**
+		 * Return the offset of the BootstrapMethods attribute's contents, or -1 if there isn't one
+		 */
+		private int findBootstrapMethods() throws IOException {
+			int offset = skipMembers(skipMembers(getFieldsOffset()));
+			int attributeCount = readUnsignedShort(offset);
+			offset += 2;
+			for (int i=0; i<attributeCount; i++) {
+				if (readUtf8(readUnsignedShort(offset)).equals("BootstrapMethods")) {
+					return offset + 6;
+				}
+				offset += 6 + readInt(offset + 2);
+			}
+			return -1;
+		}
+
+		/**
+		 * Return the offset of each method's code, at the length that precedes it
+		 */
+		private List<Integer> findCode() throws IOException {
+			List<Integer> code = new ArrayList<Integer>();
+			int offset = skipMembers(getFieldsOffset());
+			int methodCount = readUnsignedShort(offset);
+			offset += 2;
+			for (int i=0; i<methodCount; i++) {
+				int attributeCount = readUnsignedShort(offset + 6);
+				offset += 8;
+				for (int j=0; j<attributeCount; j++) {
+					if (readUtf8(readUnsignedShort(offset)).equals("Code")) {
+						// after the max stack and max locals
+						code.add(offset + 10);
+					}
+					offset += 6 + readInt(offset + 2);
+				}
+			}
+			return code;
+		}
+
+		private int getFieldsOffset() {
+			// after the access flags, this class, superclass and interfaces
+			return poolEnd + 8 + readUnsignedShort(poolEnd + 6) * 2;
+		}
+
+		/**
+		 * Return the offset after a list of fields or methods
+		 */
+		private int skipMembers(int offset) {
+			int count = readUnsignedShort(offset);
+			offset += 2;
+			for (int i=0; i<count; i++) {
+				int attributeCount = readUnsignedShort(offset + 6);
+				offset += 8;
+				for (int j=0; j<attributeCount; j++) {
+					offset += 6 + readInt(offset + 2);
+				}
+			}
+			return offset;
+		}
+
+		/**
+		 * Return the length of the instruction at an offset into some code
+		 */
+		private int getInstructionLength(int code, int pc) {
+			int opcode = bytes[code + pc] & 0xFF;
+			switch (opcode) {
+			case BIPUSH: case LDC: case ILOAD: case LLOAD: case FLOAD: case DLOAD: case ALOAD:
+			case ISTORE: case LSTORE: case FSTORE: case DSTORE: case ASTORE: case RET: case NEWARRAY:
+				return 2;
+			case SIPUSH: case LDC_W: case LDC2_W: case IINC: case GETSTATIC: case PUTSTATIC: case GETFIELD:
+			case PUTFIELD: case INVOKEVIRTUAL: case INVOKESPECIAL: case INVOKESTATIC: case NEW:
+			case ANEWARRAY: case CHECKCAST: case INSTANCEOF:
+				return 3;
+			case MULTIANEWARRAY:
+				return 4;
+			case INVOKEINTERFACE: case INVOKEDYNAMIC: case GOTO_W: case JSR_W:
+				return 5;
+			case WIDE:
+				return (bytes[code + pc + 1] & 0xFF) == IINC ? 6 : 4;
+			case TABLESWITCH: {
+				int operands = pc + 4 - (pc & 3);
+				int low = readInt(code + operands + 4);
+				int high = readInt(code + operands + 8);
+				return operands - pc + 12 + (high - low + 1) * 4;
+			}
+			case LOOKUPSWITCH: {
+				int operands = pc + 4 - (pc & 3);
+				return operands - pc + 8 + readInt(code + operands + 4) * 8;
+			}
+			default:
+				if (opcode >= IFEQ && opcode <= JSR || opcode == IFNULL || opcode == IFNONNULL) {
+					return 3;
+				}
+				return 1;
+			}
+		}
+
+		private int readUnsignedShort(int offset) {
+			return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+		}
+
+		private int readInt(int offset) {
+			return (readUnsignedShort(offset) << 16) | readUnsignedShort(offset + 2);
+		}
+	}
+
+}
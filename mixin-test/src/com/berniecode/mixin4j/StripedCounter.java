@@ -0,0 +1,54 @@
+package com.berniecode.mixin4j;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A counter that many threads can add to at once without contending for the same memory.
+ * Each thread adds to one of several stripes, chosen by its thread id, and reading the counter
+ * sums the stripes. This is the approach of Java 8's LongAdder, which isn't available to this
+ * library.
+ *
+ * <p>Reads are not atomic with respect to concurrent additions, which is fine for statistics.
+ *
+ * @author Bernard Sumption
+ */
+class StripedCounter {
+
+	// longs per stripe, so that each stripe is on a different 64 byte cache line
+	private static final int PADDING = 8;
+
+	static final int STRIPES;
+	static {
+		int stripes = 1;
+		while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 16) {
+			stripes *= 2;
+		}
+		STRIPES = stripes;
+	}
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+	void increment() {
+		add(1);
+	}
+
+	void add(long amount) {
+		cells.getAndAdd(getStripe() * PADDING, amount);
+	}
+
+	/**
+	 * The stripe that the current thread uses, from 0 to {@link #STRIPES} - 1
+	 */
+	static int getStripe() {
+		return (int) Thread.currentThread().getId() & (STRIPES - 1);
+	}
+
+	long sum() {
+		long sum = 0;
+		for (int i=0; i<STRIPES; i++) {
+			sum += cells.get(i * PADDING);
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,158 @@
+package com.berniecode.mixin4j;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import net.sf.cglib.asm.ClassWriter;
+import net.sf.cglib.asm.MethodVisitor;
+import net.sf.cglib.asm.Opcodes;
+import net.sf.cglib.asm.Type;
+
+/**
+ * <p>Implements the constructor interfaces returned by {@link AbstractFactory#getTypedConstructor(Class)}.
+ *
+ * <p>For a generated mixed class, the implementation is a generated class whose method creates the
+ * mixed object with a single <code>new</code> instruction, passing its parameters straight through.
+ * It is defined in a class loader of its own, which sees both the mixed class and the interface.
+ *
+ * @author Bernard Sumption
+ */
+class TypedConstructors implements Opcodes {
+
+	/**
+	 * Check that an interface is a valid constructor interface for a mixin base class, and return its method
+	 *
+	 * @param mixinBase the mixin base class, or null to only check the form of the interface
+	 * @throws MixinException if it isn't
+	 */
+	static Method getConstructorMethod(Class<?> constructorInterface, Class<?> mixinBase) {
+		if (!constructorInterface.isInterface() || !Modifier.isPublic(constructorInterface.getModifiers())) {
+			throw new MixinException("Constructor interface '" + constructorInterface.getCanonicalName()
+					+ "' must be a public interface");
+		}
+		Method[] methods = constructorInterface.getMethods();
+		if (methods.length != 1) {
+			throw new MixinException("Constructor interface '" + constructorInterface.getCanonicalName()
+					+ "' must have exactly one method");
+		}
+		Method method = methods[0];
+		if (mixinBase == null) {
+			return method;
+		}
+		if (!method.getReturnType().isAssignableFrom(mixinBase)) {
+			throw new MixinException("The method of constructor interface '" + constructorInterface.getCanonicalName()
+					+ "' must return '" + mixinBase.getCanonicalName() + "' or a supertype");
+		}
+		for (Constructor<?> constructor: MixedClassFactory.getMixableConstructors(mixinBase)) {
+			if (Arrays.equals(constructor.getParameterTypes(), method.getParameterTypes())) {
+				return method;
+			}
+		}
+		throw new MixinException("Class " + mixinBase.getCanonicalName() + " has no constructor with arguments "
+				+ Arrays.toString(method.getParameterTypes()) + " to match constructor interface '"
+				+ constructorInterface.getCanonicalName() + "'");
+	}
+
+	/**
+	 * Generate an implementation of a constructor interface that creates instances of a mixed class
+	 */
+	static <C> C generate(Class<C> constructorInterface, Class<?> mixedClass) {
+		Method method = getConstructorMethod(constructorInterface, mixedClass.getSuperclass());
+		String className = mixedClass.getName() + "$" + constructorInterface.getSimpleName();
+		String internalName = className.replace('.', '/');
+		String mixedClassName = Type.getInternalName(mixedClass);
+
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, internalName, null, "java/lang/Object",
+				new String[] {Type.getInternalName(constructorInterface)});
+
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+
+		mv = cw.visitMethod(ACC_PUBLIC, method.getName(), Type.getMethodDescriptor(method), null, null);
+		mv.visitCode();
+		mv.visitTypeInsn(NEW, mixedClassName);
+		mv.visitInsn(DUP);
+		Type[] argumentTypes = Type.getArgumentTypes(method);
+		int local = 1;
+		for (Type argumentType: argumentTypes) {
+			mv.visitVarInsn(argumentType.getOpcode(ILOAD), local);
+			local += argumentType.getSize();
+		}
+		mv.visitMethodInsn(INVOKESPECIAL, mixedClassName, "<init>", Type.getMethodDescriptor(Type.VOID_TYPE, argumentTypes));
+		mv.visitInsn(ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		cw.visitEnd();
+
+		byte[] bytecode = cw.toByteArray();
+		try {
+			return constructorInterface.cast(new ConstructorClassLoader(mixedClass, constructorInterface)
+					.define(className, bytecode).getDeclaredConstructor().newInstance());
+		} catch (Exception e) {
+			throw new MixinException("Could not create constructor " + className, e);
+		}
+	}
+
+	/**
+	 * Implement a constructor interface by calling {@link Factory#newInstance(Class[], Object[])}, for
+	 * factories that don't generate classes that can be called directly
+	 *
+	 * @param mixinBase the class that the factory creates, or null if it isn't known
+	 */
+	static <C> C createReflective(Class<C> constructorInterface, Class<?> mixinBase, final Factory<?> factory) {
+		final Method constructorMethod = getConstructorMethod(constructorInterface, mixinBase);
+		final Class<?>[] argTypes = constructorMethod.getParameterTypes();
+		return constructorInterface.cast(Proxy.newProxyInstance(constructorInterface.getClassLoader(),
+				new Class<?>[] {constructorInterface}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.equals(constructorMethod)) {
+					return factory.newInstance(argTypes, args == null ? new Object[0] : args);
+				}
+				if (method.getName().equals("equals")) {
+					return proxy == args[0];
+				}
+				if (method.getName().equals("hashCode")) {
+					return System.identityHashCode(proxy);
+				}
+				return "Constructor for " + factory;
+			}
+		}));
+	}
+
+	/**
+	 * Loads classes from the mixed class's class loader, except for the constructor interface,
+	 * which may come from a different loader
+	 */
+	private static class ConstructorClassLoader extends ClassLoader {
+
+		private final Class<?> constructorInterface;
+
+		ConstructorClassLoader(Class<?> mixedClass, Class<?> constructorInterface) {
+			super(mixedClass.getClassLoader());
+			this.constructorInterface = constructorInterface;
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (name.equals(constructorInterface.getName())) {
+				return constructorInterface;
+			}
+			return super.loadClass(name, resolve);
+		}
+
+		Class<?> define(String name, byte[] bytecode) {
+			return defineClass(name, bytecode, 0, bytecode.length);
+		}
+	}
+
+}
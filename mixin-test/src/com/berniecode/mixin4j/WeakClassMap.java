@@ -0,0 +1,219 @@
+package com.berniecode.mixin4j;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.berniecode.mixin4j.FactoryCachePolicy.Retention;
+
+/**
+ * <p>A concurrent map from classes to values that doesn't keep the classes alive, so that a class
+ * loader can be unloaded while classes it defined are still keys.
+ *
+ * <p>Values that refer to their key class, for example a factory for a subclass of it, would keep it
+ * alive if they were held strongly, so each value can be held strongly or softly. Once a soft value
+ * has been collected, the entry behaves as if it was never added, and is removed the next time a
+ * value is added.
+ *
+ * @author Bernard Sumption
+ */
+class WeakClassMap<V> {
+
+	// values are either V, or a ValueReference to a V
+	private final ConcurrentMap<Object, Object> map = new ConcurrentHashMap<Object, Object>();
+
+	private final ReferenceQueue<Class<?>> collectedKeys = new ReferenceQueue<Class<?>>();
+
+	private final ReferenceQueue<Object> collectedValues = new ReferenceQueue<Object>();
+
+	/**
+	 * Return the value for a class, or null if there isn't one or it has been collected
+	 */
+	V get(Class<?> klass) {
+		return unwrap(map.get(new LookupKey(klass)));
+	}
+
+	boolean containsKey(Class<?> klass) {
+		return get(klass) != null;
+	}
+
+	/**
+	 * Add a value for a class unless it already has one
+	 *
+	 * @param retention how strongly to hold the value
+	 * @return the existing value, or null if the value was added
+	 */
+	V putIfAbsent(Class<?> klass, V value, Retention retention) {
+		expungeCollectedKeys();
+		ClassKey key = new ClassKey(klass, collectedKeys);
+		Object wrapped;
+		if (retention == Retention.SOFT) {
+			wrapped = new SoftValue(key, value, collectedValues);
+		} else {
+			wrapped = value;
+		}
+		while (true) {
+			Object existing = map.putIfAbsent(key, wrapped);
+			if (existing == null) {
+				return null;
+			}
+			V existingValue = unwrap(existing);
+			if (existingValue != null) {
+				return existingValue;
+			}
+			// the existing value has been collected, so replace it
+			if (map.replace(key, existing, wrapped)) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Remove the value for a class, if it is the given value
+	 */
+	boolean remove(Class<?> klass, V value) {
+		LookupKey key = new LookupKey(klass);
+		Object existing = map.get(key);
+		return existing != null && unwrap(existing) == value && map.remove(key, existing);
+	}
+
+	/**
+	 * @return the number of entries, including any whose values have been collected since
+	 *         {@link #expungeCollectedValues()} was last called
+	 */
+	int size() {
+		expungeCollectedKeys();
+		return map.size();
+	}
+
+	/**
+	 * Remove the entries whose values have been collected
+	 *
+	 * @return the number of entries removed
+	 */
+	int expungeCollectedValues() {
+		int count = 0;
+		Reference<?> value;
+		while ((value = collectedValues.poll()) != null) {
+			if (map.remove(((ValueReference) value).getKey(), value)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return a copy of the classes and values currently in the map
+	 */
+	Map<Class<?>, V> snapshot() {
+		Map<Class<?>, V> snapshot = new HashMap<Class<?>, V>();
+		for (Map.Entry<Object, Object> entry: map.entrySet()) {
+			Class<?> klass = ((ClassKey) entry.getKey()).get();
+			V value = unwrap(entry.getValue());
+			if (klass != null && value != null) {
+				snapshot.put(klass, value);
+			}
+		}
+		return snapshot;
+	}
+
+	// safe because only putIfAbsent adds values, and they are all V or references to V
+	@SuppressWarnings("unchecked")
+	private V unwrap(Object value) {
+		if (value instanceof ValueReference) {
+			return (V) ((Reference<?>) value).get();
+		}
+		return (V) value;
+	}
+
+	private void expungeCollectedKeys() {
+		Object key;
+		while ((key = collectedKeys.poll()) != null) {
+			map.remove(key);
+		}
+	}
+
+	/**
+	 * The key of an entry in the map, which compares equal to any other key for the same class
+	 */
+	private static final class ClassKey extends WeakReference<Class<?>> {
+
+		private final int hashCode;
+
+		ClassKey(Class<?> klass, ReferenceQueue<Class<?>> queue) {
+			super(klass, queue);
+			hashCode = System.identityHashCode(klass);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			Class<?> klass = get();
+			if (klass == null) {
+				// collected, so only equal to itself
+				return false;
+			}
+			if (obj instanceof ClassKey) {
+				return klass == ((ClassKey) obj).get();
+			}
+			return obj instanceof LookupKey && klass == ((LookupKey) obj).klass;
+		}
+	}
+
+	/**
+	 * A key used only for the duration of a lookup, which is cheaper to create than a ClassKey
+	 */
+	private static final class LookupKey {
+
+		private final Class<?> klass;
+
+		LookupKey(Class<?> klass) {
+			this.klass = klass;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(klass);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ClassKey && ((ClassKey) obj).get() == klass;
+		}
+	}
+
+	/**
+	 * A value that isn't held strongly, which knows its key so that its entry can be removed once
+	 * it has been collected
+	 */
+	private interface ValueReference {
+		ClassKey getKey();
+	}
+
+	private static final class SoftValue extends SoftReference<Object> implements ValueReference {
+
+		private final ClassKey key;
+
+		SoftValue(ClassKey key, Object value, ReferenceQueue<Object> queue) {
+			super(value, queue);
+			this.key = key;
+		}
+
+		public ClassKey getKey() {
+			return key;
+		}
+	}
+
+}
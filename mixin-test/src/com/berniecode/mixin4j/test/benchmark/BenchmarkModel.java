@@ -0,0 +1,83 @@
+package com.berniecode.mixin4j.test.benchmark;
+
+import com.berniecode.mixin4j.Mixin;
+import com.berniecode.mixin4j.test.aware.DumpIteratorToXml;
+import com.berniecode.mixin4j.test.aware.DumpToXmlMixin;
+import com.berniecode.mixin4j.test.aware.RandomNumberSequence;
+import com.berniecode.mixin4j.test.hello.GreetingMixin;
+import com.berniecode.mixin4j.test.hello.PoshGreeting;
+import com.berniecode.mixin4j.test.hello.StaticallyMixedObject;
+import com.berniecode.mixin4j.test.tree.Employee;
+import com.berniecode.mixin4j.test.tree.MutableTreeNodeMixin;
+import com.berniecode.mixin4j.test.tree.MutableTreeNodeMixinImpl;
+
+/**
+ * <p>One of the demo models used by {@link MixerBenchmark}: a mixin base, its mixin, the
+ * constructor to call, a delegated method to call, and a hand-written subclass that does the
+ * same delegation as a mixed class, to compare against.
+ *
+ * @author Bernard Sumption
+ */
+abstract class BenchmarkModel<T> {
+
+	static final BenchmarkModel<StaticallyMixedObject> HELLO = new BenchmarkModel<StaticallyMixedObject>("hello",
+			StaticallyMixedObject.class, GreetingMixin.class, PoshGreeting.class, new Class<?>[0], new Object[0]) {
+		StaticallyMixedObject createByHand(Object[] args) {
+			return new HandWrittenStaticallyMixedObject();
+		}
+		Object callDelegatedMethod(StaticallyMixedObject instance) {
+			return instance.getGreeting();
+		}
+	};
+
+	static final BenchmarkModel<Employee> TREE = new BenchmarkModel<Employee>("tree",
+			Employee.class, MutableTreeNodeMixin.class, MutableTreeNodeMixinImpl.class,
+			new Class<?>[] {String.class}, new Object[] {"Bob"}) {
+		Employee createByHand(Object[] args) {
+			return new HandWrittenEmployee((String) args[0]);
+		}
+		Object callDelegatedMethod(Employee instance) {
+			return instance.getChildCount();
+		}
+	};
+
+	static final BenchmarkModel<RandomNumberSequence> AWARE = new BenchmarkModel<RandomNumberSequence>("aware",
+			RandomNumberSequence.class, DumpToXmlMixin.class, DumpIteratorToXml.class,
+			new Class<?>[] {Integer.TYPE, Integer.TYPE, Integer.TYPE}, new Object[] {0, 0, 100}) {
+		RandomNumberSequence createByHand(Object[] args) {
+			return new HandWrittenRandomNumberSequence((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+		}
+		Object callDelegatedMethod(RandomNumberSequence instance) {
+			// the sequence is empty, so this measures the call rather than the XML generation
+			return instance.getXml();
+		}
+	};
+
+	static final BenchmarkModel<?>[] ALL = {HELLO, TREE, AWARE};
+
+	final String name;
+	final Class<T> mixinBase;
+	final Mixin<T> mixin;
+	final Class<?>[] constructorArgTypes;
+	final Object[] constructorArgs;
+
+	BenchmarkModel(String name, Class<T> mixinBase, Class<?> mixinType, Class<?> mixinImpl,
+			Class<?>[] constructorArgTypes, Object[] constructorArgs) {
+		this.name = name;
+		this.mixinBase = mixinBase;
+		this.mixin = new Mixin<T>(mixinType, mixinImpl, mixinBase);
+		this.constructorArgTypes = constructorArgTypes;
+		this.constructorArgs = constructorArgs;
+	}
+
+	/**
+	 * Create an instance of the hand-written equivalent of the mixed class
+	 */
+	abstract T createByHand(Object[] args);
+
+	/**
+	 * Call a method that the mixed class delegates to the mixin implementation
+	 */
+	abstract Object callDelegatedMethod(T instance);
+
+}
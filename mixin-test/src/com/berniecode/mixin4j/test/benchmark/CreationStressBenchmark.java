@@ -0,0 +1,221 @@
+package com.berniecode.mixin4j.test.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.berniecode.mixin4j.AbstractFactory;
+import com.berniecode.mixin4j.BaseLoaderMixer;
+import com.berniecode.mixin4j.BytecodeGeneratingMixer;
+import com.berniecode.mixin4j.ClassGeneratingMixer;
+import com.berniecode.mixin4j.ConstructorInvoker;
+import com.berniecode.mixin4j.DynamicProxyMixer;
+import com.berniecode.mixin4j.FieldInliningMixer;
+import com.berniecode.mixin4j.Mixer;
+import com.berniecode.mixin4j.MixinSupport;
+import com.berniecode.mixin4j.test.hello.StaticallyMixedObject;
+import com.berniecode.mixin4j.test.tree.Employee;
+
+/**
+ * <p>Creates mixed objects from many virtual threads at once, to check that creation doesn't
+ * serialise them or pin their carrier threads. Each task creates a number of instances, yielding
+ * regularly so that the virtual threads interleave on their carriers. It measures:
+ *
+ * <ul>
+ * <li>the time for all of the tasks to create their first instance of a mixin base that a new
+ * {@link MixinSupport} hasn't generated a factory for, so that they all wait for one thread to
+ * generate it
+ * <li>the throughput of {@link MixinSupport} and of each {@link Mixer}'s factories once warmed up,
+ * compared with hand-written delegation
+ * </ul>
+ *
+ * <p>The number of tasks and the number of instances each creates can be given as the first and
+ * second arguments, and default to 10000 and 1000. Virtual threads need Java 21 or later, and are
+ * created by reflection so that this library can still be built for older JVMs. On older JVMs the
+ * tasks are run by a pool of platform threads instead. To report any carrier threads that are
+ * pinned, run it with <code>-Djdk.tracePinnedThreads=short</code>, or record
+ * <code>jdk.VirtualThreadPinned</code> events with the flight recorder.
+ *
+ * @author Bernard Sumption
+ */
+public class CreationStressBenchmark {
+
+	// the instances each task creates between yields
+	private static final int YIELD_INTERVAL = 100;
+
+	// written with the result of each operation so that the JIT compiler can't remove it
+	private static volatile Object sink;
+
+	private static int taskCount;
+
+	private static int instancesPerTask;
+
+	public static void main(String[] args) throws Exception {
+		taskCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		instancesPerTask = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+		Map<String, Mixer> mixers = new LinkedHashMap<String, Mixer>();
+		mixers.put("ClassGeneratingMixer", new ClassGeneratingMixer());
+		mixers.put("BytecodeGeneratingMixer", new BytecodeGeneratingMixer());
+		mixers.put("FieldInliningMixer", new FieldInliningMixer());
+		mixers.put("BaseLoaderMixer", new BaseLoaderMixer());
+		mixers.put("DynamicProxyMixer", new DynamicProxyMixer());
+
+		ExecutorService probe = newVirtualThreadExecutor();
+		if (probe != null) {
+			probe.shutdown();
+		}
+		System.out.println(taskCount + " tasks creating " + instancesPerTask + " instances each, on "
+				+ (probe != null ? "virtual threads" : "platform threads, as virtual threads are not available")
+				+ ", " + Runtime.getRuntime().availableProcessors() + " processors");
+
+		System.out.println();
+		System.out.println("First instance from every task, with a new MixinSupport (ms in total)");
+		final AtomicReference<MixinSupport> coldSupport = new AtomicReference<MixinSupport>();
+		Operation coldCreation = new Operation() {
+			Object run() {
+				return coldSupport.get().newInstanceOf(Employee.class, new Object[] {"Bob"});
+			}
+		};
+		for (int i=0; i<3; i++) {
+			coldSupport.set(new MixinSupport());
+			System.out.printf("  %-60s %12.1f%n", "MixinSupport.newInstanceOf(Class, Object[]) [tree], run " + (i + 1),
+					runTasks(coldCreation, 1) / 1e6);
+		}
+
+		Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+		operations.put("MixinSupport.newInstanceOf(Class) [hello]", new Operation() {
+			Object run() {
+				return MixinSupport.getSingleton().newInstanceOf(StaticallyMixedObject.class);
+			}
+		});
+		operations.put("MixinSupport.create(Class, Object...) [tree]", new Operation() {
+			Object run() {
+				return MixinSupport.getSingleton().create(Employee.class, "Bob");
+			}
+		});
+		for (BenchmarkModel<?> model: BenchmarkModel.ALL) {
+			for (Map.Entry<String, Mixer> mixer: mixers.entrySet()) {
+				try {
+					operations.put(mixer.getKey() + " [" + model.name + "]", invokeConstructor(mixer.getValue(), model));
+				} catch (RuntimeException e) {
+					System.out.println(mixer.getKey() + " can't mix " + model.name + ": " + e);
+				}
+			}
+			operations.put("hand-written [" + model.name + "]", createByHand(model));
+		}
+
+		System.out.println();
+		System.out.println("Creation once warmed up (million instances per second in total)");
+		for (Map.Entry<String, Operation> operation: operations.entrySet()) {
+			// warm up
+			runTasks(operation.getValue(), instancesPerTask);
+			long nanos = runTasks(operation.getValue(), instancesPerTask);
+			System.out.printf("  %-60s %12.2f%n", operation.getKey(), (double) taskCount * instancesPerTask / nanos * 1e3);
+		}
+	}
+
+	//
+	// OPERATIONS
+	//
+
+	/**
+	 * An operation to be measured
+	 */
+	private static abstract class Operation {
+		abstract Object run();
+	}
+
+	private static <T> Operation invokeConstructor(Mixer mixer, final BenchmarkModel<T> model) {
+		final ConstructorInvoker<? extends T> constructor = AbstractFactory.adapt(mixer.getFactory(model.mixinBase, model.mixin))
+				.getConstructor(model.constructorArgTypes);
+		return new Operation() {
+			Object run() {
+				return constructor.newInstance(model.constructorArgs);
+			}
+		};
+	}
+
+	private static Operation createByHand(final BenchmarkModel<?> model) {
+		return new Operation() {
+			Object run() {
+				return model.createByHand(model.constructorArgs);
+			}
+		};
+	}
+
+	//
+	// MEASUREMENT
+	//
+
+	/**
+	 * Start all of the tasks, then let them run the operation a number of times each at once
+	 *
+	 * @return the time in nanoseconds from letting the tasks run until they had all finished
+	 */
+	private static long runTasks(final Operation operation, final int runsPerTask) throws InterruptedException {
+		final CountDownLatch ready = new CountDownLatch(taskCount);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(taskCount);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		ExecutorService executor = newVirtualThreadExecutor();
+		boolean virtual = executor != null;
+		if (!virtual) {
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+		}
+		for (int i=0; i<taskCount; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						ready.countDown();
+						start.await();
+						for (int j=0; j<runsPerTask; j++) {
+							sink = operation.run();
+							if (j % YIELD_INTERVAL == YIELD_INTERVAL - 1) {
+								Thread.yield();
+							}
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						finished.countDown();
+					}
+				}
+			});
+		}
+		if (virtual) {
+			// a pool of platform threads can't start every task before any of them finish, so
+			// only virtual threads are all started before timing begins
+			ready.await();
+		}
+		long startTime = System.nanoTime();
+		start.countDown();
+		finished.await();
+		long nanos = System.nanoTime() - startTime;
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		if (failure.get() != null) {
+			throw new RuntimeException("A task failed", failure.get());
+		}
+		return nanos;
+	}
+
+	/**
+	 * Return an executor that runs each task on a new virtual thread, or null if the JVM doesn't
+	 * have virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.berniecode.mixin4j.test.benchmark;
+
+import java.util.Enumeration;
+
+import javax.swing.tree.MutableTreeNode;
+import javax.swing.tree.TreeNode;
+
+import com.berniecode.mixin4j.test.tree.Employee;
+import com.berniecode.mixin4j.test.tree.MutableTreeNodeMixinImpl;
+
+/**
+ * <p>The hand-written equivalent of the mixed class of {@link BenchmarkModel#TREE}
+ *
+ * @author Bernard Sumption
+ */
+class HandWrittenEmployee extends Employee {
+
+	private final MutableTreeNodeMixinImpl node = new MutableTreeNodeMixinImpl();
+
+	HandWrittenEmployee(String name) {
+		super(name);
+		node.setMixinBase(this);
+	}
+
+	public Enumeration<? extends TreeNode> children() {
+		return node.children();
+	}
+
+	public boolean getAllowsChildren() {
+		return node.getAllowsChildren();
+	}
+
+	public TreeNode getChildAt(int childIndex) {
+		return node.getChildAt(childIndex);
+	}
+
+	public int getChildCount() {
+		return node.getChildCount();
+	}
+
+	public int getIndex(TreeNode child) {
+		return node.getIndex(child);
+	}
+
+	public TreeNode getParent() {
+		return node.getParent();
+	}
+
+	public boolean isLeaf() {
+		return node.isLeaf();
+	}
+
+	public void insert(MutableTreeNode child, int index) {
+		node.insert(child, index);
+	}
+
+	public void remove(int index) {
+		node.remove(index);
+	}
+
+	public void remove(MutableTreeNode child) {
+		node.remove(child);
+	}
+
+	public void removeFromParent() {
+		node.removeFromParent();
+	}
+
+	public void setParent(MutableTreeNode newParent) {
+		node.setParent(newParent);
+	}
+
+	public void setUserObject(Object object) {
+		node.setUserObject(object);
+	}
+}
@@ -0,0 +1,23 @@
+package com.berniecode.mixin4j.test.benchmark;
+
+import com.berniecode.mixin4j.test.aware.DumpIteratorToXml;
+import com.berniecode.mixin4j.test.aware.RandomNumberSequence;
+
+/**
+ * <p>The hand-written equivalent of the mixed class of {@link BenchmarkModel#AWARE}
+ *
+ * @author Bernard Sumption
+ */
+class HandWrittenRandomNumberSequence extends RandomNumberSequence {
+
+	private final DumpIteratorToXml dumper = new DumpIteratorToXml();
+
+	HandWrittenRandomNumberSequence(int length, int min, int max) {
+		super(length, min, max);
+		dumper.setMixinBase(this);
+	}
+
+	public String getXml() {
+		return dumper.getXml();
+	}
+}
@@ -0,0 +1,18 @@
+package com.berniecode.mixin4j.test.benchmark;
+
+import com.berniecode.mixin4j.test.hello.PoshGreeting;
+import com.berniecode.mixin4j.test.hello.StaticallyMixedObject;
+
+/**
+ * <p>The hand-written equivalent of the mixed class of {@link BenchmarkModel#HELLO}
+ *
+ * @author Bernard Sumption
+ */
+class HandWrittenStaticallyMixedObject extends StaticallyMixedObject {
+
+	private final PoshGreeting greeting = new PoshGreeting();
+
+	public String getGreeting() {
+		return greeting.getGreeting();
+	}
+}
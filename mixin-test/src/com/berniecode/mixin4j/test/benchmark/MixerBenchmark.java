@@ -0,0 +1,421 @@
+package com.berniecode.mixin4j.test.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.berniecode.mixin4j.AbstractFactory;
+import com.berniecode.mixin4j.BaseLoaderMixer;
+import com.berniecode.mixin4j.BytecodeGeneratingMixer;
+import com.berniecode.mixin4j.ClassGeneratingMixer;
+import com.berniecode.mixin4j.ConstructorArguments;
+import com.berniecode.mixin4j.ConstructorInvoker;
+import com.berniecode.mixin4j.DynamicProxyMixer;
+import com.berniecode.mixin4j.Factory;
+import com.berniecode.mixin4j.FieldInliningMixer;
+import com.berniecode.mixin4j.Mixer;
+import com.berniecode.mixin4j.MixinSupport;
+import com.berniecode.mixin4j.test.aware.RandomNumberSequence;
+import com.berniecode.mixin4j.test.hello.StaticallyMixedObject;
+import com.berniecode.mixin4j.test.tree.Employee;
+
+/**
+ * <p>Compares the performance of each {@link Mixer} with hand-written delegation, using the models
+ * from the hello, tree and aware demos. It measures:
+ *
+ * <ul>
+ * <li>the time to generate a factory
+ * <li>the time to create an instance, with each {@link Factory} and {@link MixinSupport} method
+ * <li>the time to create an instance with a typed constructor from {@link AbstractFactory#getTypedConstructor(Class)}
+ * <li>the time to create an instance in a batch, with {@link AbstractFactory#newInstances(int, Class[], ConstructorArguments)}
+ * <li>the time to call a delegated method
+ * <li>the bytes allocated per instance created
+ * <li>the throughput of creating instances from several threads at once
+ * </ul>
+ *
+ * <p>Each measurement is repeated until a time limit is reached, after running it for the same
+ * time to warm up the JIT compiler. The limit in milliseconds can be given as the first argument,
+ * and defaults to 500. Run it with the same JVM options as the application being tuned.
+ *
+ * @author Bernard Sumption
+ */
+public class MixerBenchmark {
+
+	private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+	private static final int FACTORY_GENERATIONS = 20;
+
+	private static final int ALLOCATION_SAMPLE = 100000;
+
+	private static final int BATCH_SIZE = 1000;
+
+	private static final String HAND_WRITTEN = "hand-written";
+
+	// written with the result of each operation so that the JIT compiler can't remove it
+	private static volatile Object sink;
+
+	private static long measureNanos;
+
+	public static void main(String[] args) throws Exception {
+		measureNanos = (args.length > 0 ? Long.parseLong(args[0]) : 500) * 1000000L;
+
+		Map<String, Mixer> mixers = new LinkedHashMap<String, Mixer>();
+		mixers.put("ClassGeneratingMixer", new ClassGeneratingMixer());
+		mixers.put("BytecodeGeneratingMixer", new BytecodeGeneratingMixer());
+		mixers.put("FieldInliningMixer", new FieldInliningMixer());
+		mixers.put("BaseLoaderMixer", new BaseLoaderMixer());
+		mixers.put("DynamicProxyMixer", new DynamicProxyMixer());
+
+		System.out.println("Factory generation (ms per factory)");
+		for (BenchmarkModel<?> model: BenchmarkModel.ALL) {
+			for (Map.Entry<String, Mixer> mixer: mixers.entrySet()) {
+				printResult(model, mixer.getKey(), generationMillis(mixer.getValue(), model));
+			}
+		}
+
+		// the factories for each model, mapped from engine name
+		Map<BenchmarkModel<?>, Map<String, Factory<?>>> factories = new LinkedHashMap<BenchmarkModel<?>, Map<String, Factory<?>>>();
+		for (BenchmarkModel<?> model: BenchmarkModel.ALL) {
+			Map<String, Factory<?>> modelFactories = new LinkedHashMap<String, Factory<?>>();
+			for (Map.Entry<String, Mixer> mixer: mixers.entrySet()) {
+				try {
+					modelFactories.put(mixer.getKey(), getFactory(mixer.getValue(), model));
+				} catch (RuntimeException e) {
+					System.out.println(mixer.getKey() + " can't mix " + model.name + ": " + e);
+				}
+			}
+			modelFactories.put(HAND_WRITTEN, getHandWrittenFactory(model));
+			factories.put(model, modelFactories);
+		}
+
+		System.out.println();
+		System.out.println("Factory.newInstance() (ns per instance)");
+		for (Map.Entry<String, Factory<?>> factory: factories.get(BenchmarkModel.HELLO).entrySet()) {
+			printResult(BenchmarkModel.HELLO, factory.getKey(), nanosPerOperation(newInstance(factory.getValue())));
+		}
+
+		System.out.println();
+		System.out.println("Factory.newInstance(Class[], Object[]) (ns per instance)");
+		for (BenchmarkModel<?> model: BenchmarkModel.ALL) {
+			for (Map.Entry<String, Factory<?>> factory: factories.get(model).entrySet()) {
+				printResult(model, factory.getKey(), nanosPerOperation(newInstanceWithArgTypes(factory.getValue(), model)));
+			}
+		}
+
+		System.out.println();
+		System.out.println("ConstructorInvoker.newInstance(Object[]) (ns per instance)");
+		for (BenchmarkModel<?> model: BenchmarkModel.ALL) {
+			for (Map.Entry<String, Factory<?>> factory: factories.get(model).entrySet()) {
+				printResult(model, factory.getKey(), nanosPerOperation(invokeConstructor(factory.getValue(), model)));
+			}
+		}
+
+		System.out.println();
+		System.out.println("AbstractFactory.getTypedConstructor(Class) (ns per instance)");
+		for (Map.Entry<String, Factory<?>> factory: factories.get(BenchmarkModel.AWARE).entrySet()) {
+			printResult(BenchmarkModel.AWARE, factory.getKey(), nanosPerOperation(invokeTypedConstructor(factory.getValue())));
+		}
+
+		System.out.println();
+		System.out.println("AbstractFactory.newInstances(int, Class[], ConstructorArguments), in batches of " + BATCH_SIZE + " (ns per instance)");
+		for (BenchmarkModel<?> model: BenchmarkModel.ALL) {
+			for (Map.Entry<String, Factory<?>> factory: factories.get(model).entrySet()) {
+				printResult(model, factory.getKey(), nanosPerOperation(newInstances(factory.getValue(), model)) / BATCH_SIZE);
+			}
+		}
+
+		System.out.println();
+		System.out.println("MixinSupport methods, using ClassGeneratingMixer (ns per instance)");
+		for (Map.Entry<String, Operation> operation: getMixinSupportOperations().entrySet()) {
+			System.out.printf("  %-60s %12.1f%n", operation.getKey(), nanosPerOperation(operation.getValue()));
+		}
+
+		System.out.println();
+		System.out.println("Delegated method call (ns per call)");
+		for (BenchmarkModel<?> model: BenchmarkModel.ALL) {
+			for (Map.Entry<String, Factory<?>> factory: factories.get(model).entrySet()) {
+				printResult(model, factory.getKey(), nanosPerOperation(callDelegatedMethod(factory.getValue(), model)));
+			}
+		}
+
+		System.out.println();
+		System.out.println("Allocation (bytes per instance, from ConstructorInvoker.newInstance)");
+		for (BenchmarkModel<?> model: BenchmarkModel.ALL) {
+			for (Map.Entry<String, Factory<?>> factory: factories.get(model).entrySet()) {
+				printResult(model, factory.getKey(), bytesPerOperation(invokeConstructor(factory.getValue(), model)));
+			}
+		}
+
+		System.out.println();
+		System.out.println("Multi-threaded creation (million instances per second in total, by thread count "
+				+ Arrays.toString(THREAD_COUNTS) + ", " + Runtime.getRuntime().availableProcessors() + " processors)");
+		Map<String, Operation> concurrentOperations = new LinkedHashMap<String, Operation>();
+		concurrentOperations.put("MixinSupport.newInstanceOf(Class)", new Operation() {
+			Object run() {
+				return MixinSupport.getSingleton().newInstanceOf(StaticallyMixedObject.class);
+			}
+		});
+		for (Map.Entry<String, Factory<?>> factory: factories.get(BenchmarkModel.HELLO).entrySet()) {
+			concurrentOperations.put(factory.getKey() + " Factory.newInstance()", newInstance(factory.getValue()));
+		}
+		for (Map.Entry<String, Operation> operation: concurrentOperations.entrySet()) {
+			System.out.printf("  %-60s", operation.getKey());
+			for (int threadCount: THREAD_COUNTS) {
+				System.out.printf(" %8.2f", concurrentOperationsPerSecond(operation.getValue(), threadCount) / 1e6);
+			}
+			System.out.println();
+		}
+	}
+
+	//
+	// OPERATIONS
+	//
+
+	/**
+	 * An operation to be measured
+	 */
+	private static abstract class Operation {
+		abstract Object run();
+	}
+
+	private static Operation newInstance(final Factory<?> factory) {
+		return new Operation() {
+			Object run() {
+				return factory.newInstance();
+			}
+		};
+	}
+
+	private static Operation newInstanceWithArgTypes(final Factory<?> factory, final BenchmarkModel<?> model) {
+		return new Operation() {
+			Object run() {
+				return factory.newInstance(model.constructorArgTypes, model.constructorArgs);
+			}
+		};
+	}
+
+	private static Operation invokeConstructor(Factory<?> factory, final BenchmarkModel<?> model) {
+		final ConstructorInvoker<?> constructor = AbstractFactory.adapt(factory).getConstructor(model.constructorArgTypes);
+		return new Operation() {
+			Object run() {
+				return constructor.newInstance(model.constructorArgs);
+			}
+		};
+	}
+
+	private static Operation newInstances(Factory<?> factory, final BenchmarkModel<?> model) {
+		final AbstractFactory<?> batchFactory = AbstractFactory.adapt(factory);
+		final ConstructorArguments args = new ConstructorArguments() {
+			public Object[] getArguments(int index) {
+				return model.constructorArgs;
+			}
+		};
+		return new Operation() {
+			Object run() {
+				return batchFactory.newInstances(BATCH_SIZE, model.constructorArgTypes, args);
+			}
+		};
+	}
+
+	private static Operation invokeTypedConstructor(Factory<?> factory) {
+		final SequenceConstructor constructor = AbstractFactory.adapt(factory).getTypedConstructor(SequenceConstructor.class);
+		return new Operation() {
+			Object run() {
+				return constructor.create(0, 0, 100);
+			}
+		};
+	}
+
+	/**
+	 * The constructor interface for the aware model
+	 */
+	public interface SequenceConstructor {
+		RandomNumberSequence create(int length, int min, int max);
+	}
+
+	private static <T> Operation callDelegatedMethod(Factory<?> factory, final BenchmarkModel<T> model) {
+		// each factory was created for its model's mixin base
+		final T instance = model.mixinBase.cast(factory.newInstance(model.constructorArgTypes, model.constructorArgs));
+		return new Operation() {
+			Object run() {
+				return model.callDelegatedMethod(instance);
+			}
+		};
+	}
+
+	private static Map<String, Operation> getMixinSupportOperations() {
+		final MixinSupport mixinSupport = MixinSupport.getSingleton();
+		final Class<?>[] argTypes = BenchmarkModel.TREE.constructorArgTypes;
+		final Object[] args = BenchmarkModel.TREE.constructorArgs;
+		Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+		operations.put("newInstanceOf(Class) [hello]", new Operation() {
+			Object run() {
+				return mixinSupport.newInstanceOf(StaticallyMixedObject.class);
+			}
+		});
+		operations.put("newInstanceOf(Class, Class[], Object[]) [tree]", new Operation() {
+			Object run() {
+				return mixinSupport.newInstanceOf(Employee.class, argTypes, args);
+			}
+		});
+		operations.put("newInstanceOf(Class, Object[]) [tree]", new Operation() {
+			Object run() {
+				return mixinSupport.newInstanceOf(Employee.class, args);
+			}
+		});
+		operations.put("create(Class, Object...) [tree]", new Operation() {
+			Object run() {
+				return mixinSupport.create(Employee.class, "Bob");
+			}
+		});
+		return operations;
+	}
+
+	//
+	// FACTORIES
+	//
+
+	private static <T> Factory<? extends T> getFactory(Mixer mixer, BenchmarkModel<T> model) {
+		return mixer.getFactory(model.mixinBase, model.mixin);
+	}
+
+	private static <T> Factory<T> getHandWrittenFactory(final BenchmarkModel<T> model) {
+		final ConstructorInvoker<T> constructor = new ConstructorInvoker<T>() {
+			public T newInstance(Object[] constructorArgs) {
+				return model.createByHand(constructorArgs);
+			}
+		};
+		return new AbstractFactory<T>() {
+			public T newInstance() {
+				return model.createByHand(new Object[0]);
+			}
+			public T newInstance(Class<?>[] constructorArgTypes, Object[] constructorArgs) {
+				return model.createByHand(constructorArgs);
+			}
+			public ConstructorInvoker<? extends T> getConstructor(Class<?>[] constructorArgTypes) {
+				return constructor;
+			}
+			public <C> C getTypedConstructor(Class<C> constructorInterface) {
+				if (constructorInterface != SequenceConstructor.class) {
+					// other constructor interfaces call newInstance(Class[], Object[])
+					return super.getTypedConstructor(constructorInterface);
+				}
+				return constructorInterface.cast(new SequenceConstructor() {
+					public RandomNumberSequence create(int length, int min, int max) {
+						return new HandWrittenRandomNumberSequence(length, min, max);
+					}
+				});
+			}
+		};
+	}
+
+	//
+	// MEASUREMENT
+	//
+
+	/**
+	 * Return the average time in milliseconds that a mixer takes to generate a factory for a model,
+	 * or NaN if it can't
+	 */
+	private static double generationMillis(Mixer mixer, BenchmarkModel<?> model) {
+		try {
+			// warm up
+			for (int i=0; i<FACTORY_GENERATIONS/4; i++) {
+				getFactory(mixer, model);
+			}
+			long start = System.nanoTime();
+			for (int i=0; i<FACTORY_GENERATIONS; i++) {
+				sink = getFactory(mixer, model);
+			}
+			return (System.nanoTime() - start) / 1e6 / FACTORY_GENERATIONS;
+		} catch (RuntimeException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static double nanosPerOperation(Operation operation) {
+		runFor(operation, measureNanos);
+		long start = System.nanoTime();
+		long count = runFor(operation, measureNanos);
+		return (double) (System.nanoTime() - start) / count;
+	}
+
+	/**
+	 * Run an operation repeatedly for a length of time and return the number of times it was run
+	 */
+	private static long runFor(Operation operation, long nanos) {
+		long end = System.nanoTime() + nanos;
+		long count = 0;
+		do {
+			for (int i=0; i<1000; i++) {
+				sink = operation.run();
+			}
+			count += 1000;
+		} while (System.nanoTime() < end);
+		return count;
+	}
+
+	/**
+	 * Return the average number of bytes allocated by an operation, or NaN if the JVM can't report
+	 * allocation
+	 */
+	private static double bytesPerOperation(Operation operation) {
+		Object threadBean = ManagementFactory.getThreadMXBean();
+		Method getAllocatedBytes;
+		try {
+			getAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", Long.TYPE);
+			runFor(operation, measureNanos);
+			long threadId = Thread.currentThread().getId();
+			long before = (Long) getAllocatedBytes.invoke(threadBean, threadId);
+			for (int i=0; i<ALLOCATION_SAMPLE; i++) {
+				sink = operation.run();
+			}
+			long after = (Long) getAllocatedBytes.invoke(threadBean, threadId);
+			return (double) (after - before) / ALLOCATION_SAMPLE;
+		} catch (Exception e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Run an operation on several threads at once and return the total number of operations per second
+	 */
+	private static double concurrentOperationsPerSecond(final Operation operation, int threadCount) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicLong total = new AtomicLong();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i=0; i<threadCount; i++) {
+			Thread thread = new Thread() {
+				public void run() {
+					runFor(operation, measureNanos);
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					total.addAndGet(runFor(operation, measureNanos));
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		// let every thread finish warming up before the timed run
+		Thread.sleep(measureNanos / 1000000L + 100);
+		start.countDown();
+		for (Thread thread: threads) {
+			thread.join();
+		}
+		return total.get() / (measureNanos / 1e9);
+	}
+
+	private static void printResult(BenchmarkModel<?> model, String engine, double value) {
+		System.out.printf("  %-8s %-28s %12.1f%n", model.name, engine, value);
+	}
+
+}
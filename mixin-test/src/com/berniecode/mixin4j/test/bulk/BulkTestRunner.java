@@ -0,0 +1,72 @@
+package com.berniecode.mixin4j.test.bulk;
+
+import java.util.List;
+
+import com.berniecode.mixin4j.AbstractFactory;
+import com.berniecode.mixin4j.ConstructorArguments;
+import com.berniecode.mixin4j.DynamicProxyMixer;
+import com.berniecode.mixin4j.Mixin;
+import com.berniecode.mixin4j.MixinException;
+import com.berniecode.mixin4j.MixinSupport;
+import com.berniecode.mixin4j.test.tree.Employee;
+import com.berniecode.mixin4j.test.tree.MutableTreeNodeMixin;
+import com.berniecode.mixin4j.test.tree.MutableTreeNodeMixinImpl;
+
+/**
+ * <p>Demonstrates creating mixed objects in batches, with {@link MixinSupport} and with a
+ * {@link DynamicProxyMixer} factory, and the checks made before a batch is started.
+ * 
+ * @author Bernard Sumption
+ */
+public class BulkTestRunner {
+	
+	private static final Class<?>[] NAME_ARG = {String.class};
+	
+	// supplies a different name for each employee in a batch
+	private static final ConstructorArguments NAMES = new ConstructorArguments() {
+		public Object[] getArguments(int index) {
+			return new Object[] {"Employee " + index};
+		}
+	};
+
+	public static void main(String[] args) {
+		MixinSupport mixins = new MixinSupport();
+		
+		System.out.println("MixinSupport: " + getNames(mixins.newInstancesOf(Employee.class, 3, NAME_ARG, NAMES)));
+		System.out.println("Empty batch: " + mixins.newInstancesOf(Employee.class, 0, NAME_ARG, NAMES).size() + " employees");
+		System.out.println("Employees counted: " + mixins.getStatistics().getInstancesCreatedByBase().get(Employee.class.getName()));
+		
+		try {
+			mixins.newInstancesOf(Employee.class, -1, NAME_ARG, NAMES);
+		} catch (MixinException e) {
+			System.out.println("Negative count: " + e.getMessage());
+		}
+		try {
+			mixins.newInstancesOf(Employee.class, 3, NAME_ARG, null);
+		} catch (MixinException e) {
+			System.out.println("No arguments: " + e.getMessage());
+		}
+		
+		AbstractFactory<? extends Employee> factory = AbstractFactory.adapt(new DynamicProxyMixer().getFactory(Employee.class,
+				new Mixin<Employee>(MutableTreeNodeMixin.class, MutableTreeNodeMixinImpl.class, Employee.class)));
+		System.out.println("DynamicProxyMixer: " + getNames(factory.newInstances(3, NAME_ARG, NAMES)));
+		System.out.println("DynamicProxyMixer empty batch: " + factory.newInstances(0, NAME_ARG, NAMES).size() + " employees");
+		try {
+			factory.newInstances(3);
+		} catch (MixinException e) {
+			System.out.println("DynamicProxyMixer, no such constructor: " + e.getMessage());
+		}
+	}
+	
+	private static String getNames(List<? extends Employee> employees) {
+		StringBuilder names = new StringBuilder();
+		for (Employee employee: employees) {
+			if (names.length() > 0) {
+				names.append(", ");
+			}
+			names.append(employee.getName());
+		}
+		return names.toString();
+	}
+
+}
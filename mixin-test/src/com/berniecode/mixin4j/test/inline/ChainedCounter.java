@@ -0,0 +1,33 @@
+package com.berniecode.mixin4j.test.inline;
+
+import com.berniecode.mixin4j.GenericParameterImplementationSource.Dynamic;
+
+/**
+ * <p>An implementation of {@link CounterMixin} whose no-argument constructor calls another
+ * constructor, so that its fields are set by a constructor that isn't called when it is mixed.
+ * 
+ * @author Bernard Sumption
+ */
+public class ChainedCounter implements CounterMixin<Dynamic> {
+
+	private int count;
+	private int step;
+
+	public ChainedCounter() {
+		this(5);
+	}
+
+	public ChainedCounter(int step) {
+		this.step = step;
+		this.count = step;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void increment() {
+		count += step;
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.berniecode.mixin4j.test.inline;
+
+import com.berniecode.mixin4j.MixinBase;
+import com.berniecode.mixin4j.GenericParameterImplementationSource.Dynamic;
+
+/**
+ * <p>A mixin base with a counter, whose implementation is provided at runtime
+ * 
+ * @author Bernard Sumption
+ */
+@MixinBase
+public abstract class CountedObject implements CounterMixin<Dynamic> {
+
+	public String describe() {
+		int before = getCount();
+		increment();
+		return before + " " + getCount();
+	}
+
+}
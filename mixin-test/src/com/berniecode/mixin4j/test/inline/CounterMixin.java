@@ -0,0 +1,23 @@
+package com.berniecode.mixin4j.test.inline;
+
+import com.berniecode.mixin4j.GenericParameterImplementationSource;
+import com.berniecode.mixin4j.MixinType;
+
+/**
+ * <p>A mixin that adds a counter to an object
+ * 
+ * @author Bernard Sumption
+ */
+@MixinType(implementation = GenericParameterImplementationSource.class)
+public interface CounterMixin<IMPL> {
+
+	/**
+	 * Return the current count
+	 */
+	int getCount();
+
+	/**
+	 * Add the counter's step to the count
+	 */
+	void increment();
+}
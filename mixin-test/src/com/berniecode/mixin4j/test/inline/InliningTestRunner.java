@@ -0,0 +1,27 @@
+package com.berniecode.mixin4j.test.inline;
+
+import com.berniecode.mixin4j.BytecodeGeneratingMixer;
+import com.berniecode.mixin4j.FieldInliningMixer;
+import com.berniecode.mixin4j.Mixer;
+import com.berniecode.mixin4j.Mixin;
+
+/**
+ * <p>Checks that {@link FieldInliningMixer} gives the same results as {@link BytecodeGeneratingMixer}
+ * for an implementation whose constructor calls another of its constructors, which it can't copy.
+ * Both lines should print "5 10".
+ * 
+ * @author Bernard Sumption
+ */
+public class InliningTestRunner {
+
+	public static void main(String[] args) {
+		Mixin<CountedObject> mixin = new Mixin<CountedObject>(
+				CounterMixin.class, ChainedCounter.class, CountedObject.class);
+		Mixer[] mixers = {new BytecodeGeneratingMixer(), new FieldInliningMixer()};
+		for (Mixer mixer: mixers) {
+			CountedObject counted = mixer.getFactory(CountedObject.class, mixin).newInstance();
+			System.out.println(mixer.getClass().getSimpleName() + ": " + counted.describe());
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.berniecode.mixin4j.test.inline;
+
+import java.lang.reflect.Field;
+
+import com.berniecode.mixin4j.FieldInliningMixer;
+import com.berniecode.mixin4j.Mixin;
+import com.berniecode.mixin4j.test.tree.Employee;
+import com.berniecode.mixin4j.test.tree.MutableTreeNodeMixin;
+import com.berniecode.mixin4j.test.tree.MutableTreeNodeMixinImpl;
+
+/**
+ * <p>Checks that {@link FieldInliningMixer} copies {@link MutableTreeNodeMixinImpl} into the mixed
+ * class of {@link Employee}, rather than delegating to it. This should print the fields
+ * "mixin1$parent mixin1$children mixin1$mixinBase", no delegate field, and a working tree.
+ *
+ * <p>The implementation concatenates strings, which javac compiles to invokedynamic for Java 9 and
+ * later, so this also checks that those classes can be copied when compiled for a recent JVM.
+ * 
+ * @author Bernard Sumption
+ */
+public class TreeInliningTestRunner {
+
+	public static void main(String[] args) {
+		Mixin<Employee> mixin = new Mixin<Employee>(
+				MutableTreeNodeMixin.class, MutableTreeNodeMixinImpl.class, Employee.class);
+		Class<?>[] argTypes = {String.class};
+		FieldInliningMixer mixer = new FieldInliningMixer();
+		Employee bob = mixer.getFactory(Employee.class, mixin).newInstance(argTypes, new Object[] {"Bob"});
+		Employee alice = mixer.getFactory(Employee.class, mixin).newInstance(argTypes, new Object[] {"Alice"});
+
+		StringBuilder fields = new StringBuilder();
+		String delegate = "none";
+		for (Field field: bob.getClass().getDeclaredFields()) {
+			fields.append(field.getName()).append(" ");
+			if (field.getType() == MutableTreeNodeMixinImpl.class) {
+				delegate = field.getName();
+			}
+		}
+		System.out.println("Fields: " + fields.toString().trim());
+		System.out.println("Delegate field: " + delegate);
+
+		bob.insert(alice, 0);
+		System.out.println(bob + " has " + bob.getChildCount() + " report, whose manager is " + alice.getParent());
+	}
+
+}
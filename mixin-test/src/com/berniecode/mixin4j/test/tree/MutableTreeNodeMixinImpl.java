@@ -100,7 +100,7 @@ public class MutableTreeNodeMixinImpl implements MutableTreeNodeMixin, MixinAwar
 	/**
 	 * {@inheritDoc}
 	 */
-	public Enumeration<?> children() {
+	public Enumeration<? extends TreeNode> children() {
 		return children.elements();
 	}
 